@@ -10,6 +10,8 @@ plugins {
     application
 
     id("com.diffplug.spotless") version "7.1.0"
+
+    id("org.graalvm.buildtools.native") version "0.10.6"
 }
 
 repositories {
@@ -34,6 +36,7 @@ dependencies {
     implementation("net.raphimc:MinecraftAuth:4.1.1")
     implementation("org.cloudburstmc:nbt:3.0.0.Final")
     implementation("org.json:json:20250517")
+    implementation("com.google.code.gson:gson:2.11.0")
 }
 
 // Apply a specific Java toolchain to ease working on different environments.
@@ -61,6 +64,68 @@ tasks.jar {
     duplicatesStrategy = DuplicatesStrategy.EXCLUDE
 }
 
+// Records the classes a smoke test run loads into a class data sharing archive. Start the agent with
+// -XX:SharedArchiveFile=app/build/agent2.jsa to map them in rather than loading them again.
+tasks.register<Exec>("cdsArchive") {
+    group = "distribution"
+    description = "Records a class data sharing archive of the agent's startup classes."
+
+    val jarFile = tasks.jar.flatMap { it.archiveFile }
+    val archiveFile = layout.buildDirectory.file("agent2.jsa")
+    val launcher = javaToolchains.launcherFor { languageVersion = JavaLanguageVersion.of(21) }
+    inputs.file(jarFile)
+    outputs.file(archiveFile)
+
+    doFirst {
+        commandLine(
+            launcher.get().executablePath.asFile,
+            "-XX:ArchiveClassesAtExit=" + archiveFile.get().asFile,
+            "-jar",
+            jarFile.get().asFile,
+            "--smoke-test",
+        )
+    }
+}
+
+// Builds the agent as a native executable with GraalVM, for fast starts and a small footprint per
+// bot. Metadata beyond what the dependencies ship lives in
+// src/main/resources/META-INF/native-image; refresh it with `./gradlew -Pagent run` followed by
+// `./gradlew metadataCopy`.
+graalvmNative {
+    metadataRepository {
+        enabled = true
+    }
+
+    binaries {
+        named("main") {
+            imageName = "agent2"
+            mainClass = "me.mauldin.super_sorting_system.McAgent"
+            // The operator endpoint may be plain http or https
+            buildArgs.add("--enable-url-protocols=http,https")
+        }
+    }
+
+    agent {
+        metadataCopy {
+            inputTaskNames.add("run")
+            outputDirectories.add("src/main/resources/META-INF/native-image/me.mauldin/agent2")
+            mergeWithExisting = true
+        }
+    }
+}
+
+// Boots the native executable against a stand-in server, failing if the handshake never arrives
+tasks.register<Exec>("nativeSmokeTest") {
+    group = "verification"
+    description = "Boots the native executable against a local stand-in server."
+    dependsOn(tasks.named("nativeCompile"))
+
+    val executable = layout.buildDirectory.file("native/nativeCompile/agent2")
+    doFirst {
+        commandLine(executable.get().asFile, "--smoke-test")
+    }
+}
+
 spotless {
 	java {
 		importOrder()
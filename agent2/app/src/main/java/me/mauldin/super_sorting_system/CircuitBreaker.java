@@ -0,0 +1,79 @@
+package me.mauldin.super_sorting_system;
+
+/**
+ * Trips after a run of consecutive failures reaching the operator, after which calls are rejected
+ * without being attempted until a cooldown passes. A single trial call is then let through, which
+ * either closes the breaker or opens it again with a longer cooldown.
+ */
+class CircuitBreaker {
+  private enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long minOpenMs;
+  private final long maxOpenMs;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures = 0;
+  private long openMs;
+  private long openUntil = 0;
+
+  CircuitBreaker(int failureThreshold, long minOpenMs, long maxOpenMs) {
+    this.failureThreshold = failureThreshold;
+    this.minOpenMs = minOpenMs;
+    this.maxOpenMs = maxOpenMs;
+    this.openMs = minOpenMs;
+  }
+
+  // Returns 0 if a call may go ahead, otherwise how long until the breaker will allow one
+  synchronized long tryAcquire() {
+    long now = System.currentTimeMillis();
+
+    switch (this.state) {
+      case CLOSED:
+        return 0;
+      case OPEN:
+        if (now < this.openUntil) {
+          return this.openUntil - now;
+        }
+        this.state = State.HALF_OPEN;
+        return 0;
+      default:
+        // A trial call is already in flight
+        return this.minOpenMs;
+    }
+  }
+
+  // Returns true if this closed a breaker that was open
+  synchronized boolean recordSuccess() {
+    boolean wasOpen = this.state != State.CLOSED;
+
+    this.state = State.CLOSED;
+    this.consecutiveFailures = 0;
+    this.openMs = this.minOpenMs;
+
+    return wasOpen;
+  }
+
+  // Returns true if this opened the breaker
+  synchronized boolean recordFailure() {
+    this.consecutiveFailures++;
+
+    if (this.state == State.HALF_OPEN) {
+      this.openMs = Math.min(this.openMs * 2, this.maxOpenMs);
+    } else if (this.state == State.OPEN || this.consecutiveFailures < this.failureThreshold) {
+      return false;
+    }
+
+    this.state = State.OPEN;
+    this.openUntil = System.currentTimeMillis() + this.openMs;
+    return true;
+  }
+
+  synchronized boolean isOpen() {
+    return this.state != State.CLOSED;
+  }
+}
@@ -3,13 +3,34 @@ package me.mauldin.super_sorting_system;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class Config {
+  // Account that keeps using auth.json, so single-bot setups need no accounts list
+  public static final String DEFAULT_ACCOUNT = "default";
+  // Offline bots join under their account name, which the server checks like any player name
+  private static final Pattern OFFLINE_USERNAME = Pattern.compile("[A-Za-z0-9_]{3,16}");
+
   private final String apiKey;
   private final String endpoint;
   private final String mcServerHost;
   private final int mcServerPort;
+  private final long operationPollWaitMs;
+  private final boolean useChannel;
+  private final String payloadCodec;
+  private final boolean pipelineOperations;
+  private final int maxBatchedOperations;
+  private final boolean carryOverInventory;
+  private final List<String> accounts;
+  private final long operationDeadlineMs;
+  private final int controlPort;
+  private final long drainTimeoutMs;
+  private final int reconnectAttempts;
+  private final boolean offlineAuth;
 
   public Config() throws IOException {
     this("config.json");
@@ -23,6 +44,52 @@ public class Config {
     this.endpoint = json.getString("endpoint");
     this.mcServerHost = json.getString("mc_server_host");
     this.mcServerPort = json.getInt("mc_server_port");
+    this.operationPollWaitMs = json.optLong("operation_poll_wait_ms", 20000);
+    this.useChannel = json.optBoolean("use_channel", false);
+    this.payloadCodec = json.optString("payload_codec", "json");
+    this.pipelineOperations = json.optBoolean("pipeline_operations", false);
+    this.maxBatchedOperations = json.optInt("max_batched_operations", 1);
+    this.carryOverInventory = json.optBoolean("carry_over_inventory", false);
+    this.operationDeadlineMs = json.optLong("operation_deadline_ms", 300000);
+    this.controlPort = json.optInt("control_port", 0);
+    this.drainTimeoutMs = json.optLong("drain_timeout_ms", 600000);
+    this.reconnectAttempts = json.optInt("reconnect_attempts", 10);
+
+    String authMode = json.optString("auth_mode", "microsoft");
+    if (!authMode.equals("microsoft") && !authMode.equals("offline")) {
+      throw new IllegalArgumentException("config: unknown auth mode " + authMode);
+    }
+    this.offlineAuth = authMode.equals("offline");
+
+    this.accounts = new ArrayList<>();
+    JSONArray accountsArray = json.optJSONArray("accounts");
+    if (accountsArray == null || accountsArray.isEmpty()) {
+      // Offline there is no auth.json to name the player, so a single bot needs its name given
+      if (this.offlineAuth) {
+        if (!json.has("offline_username")) {
+          throw new IllegalArgumentException(
+              "config: offline auth needs offline_username or an accounts list");
+        }
+        this.accounts.add(json.getString("offline_username"));
+      } else {
+        this.accounts.add(DEFAULT_ACCOUNT);
+      }
+    } else {
+      for (int i = 0; i < accountsArray.length(); i++) {
+        this.accounts.add(accountsArray.getString(i));
+      }
+    }
+
+    if (this.offlineAuth) {
+      for (String account : this.accounts) {
+        if (!OFFLINE_USERNAME.matcher(account).matches()) {
+          throw new IllegalArgumentException(
+              "config: "
+                  + account
+                  + " isn't a valid offline username, use 3-16 letters, digits or underscores");
+        }
+      }
+    }
   }
 
   public String getApiKey() {
@@ -40,4 +107,57 @@ public class Config {
   public int getMcServerPort() {
     return mcServerPort;
   }
+
+  public long getOperationPollWaitMs() {
+    return operationPollWaitMs;
+  }
+
+  public boolean getUseChannel() {
+    return useChannel;
+  }
+
+  public String getPayloadCodec() {
+    return payloadCodec;
+  }
+
+  public boolean getPipelineOperations() {
+    return pipelineOperations;
+  }
+
+  public int getMaxBatchedOperations() {
+    return maxBatchedOperations;
+  }
+
+  public boolean getCarryOverInventory() {
+    return carryOverInventory;
+  }
+
+  public long getOperationDeadlineMs() {
+    return operationDeadlineMs;
+  }
+
+  // Port of the localhost control endpoint, or 0 to not serve one
+  public int getControlPort() {
+    return controlPort;
+  }
+
+  public long getDrainTimeoutMs() {
+    return drainTimeoutMs;
+  }
+
+  // How many times a dropped connection is retried before the bot shuts down
+  public int getReconnectAttempts() {
+    return reconnectAttempts;
+  }
+
+  // Joins as each account's name (or offline_username for a single bot) without a Microsoft login,
+  // for servers with online-mode=false
+  public boolean getOfflineAuth() {
+    return offlineAuth;
+  }
+
+  // One bot is run per account, all in this process
+  public List<String> getAccounts() {
+    return accounts;
+  }
 }
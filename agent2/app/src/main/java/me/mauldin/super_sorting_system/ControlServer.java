@@ -0,0 +1,88 @@
+package me.mauldin.super_sorting_system;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import me.mauldin.super_sorting_system.bot.Bot;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * HTTP endpoint on localhost for controlling a running agent. GET /status lists its bots and POST
+ * /drain drains them all, so a restart can wait for the bots to put their work down first.
+ */
+public class ControlServer {
+  private final McAgent mcAgent;
+  private final HttpServer server;
+
+  public ControlServer(McAgent mcAgent, int port) throws IOException {
+    this.mcAgent = mcAgent;
+    this.server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+
+    this.server.createContext(
+        "/status",
+        exchange -> {
+          if (!exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 405, new JSONObject().put("error", "use GET"));
+            return;
+          }
+          respond(exchange, 200, this.status());
+        });
+    this.server.createContext(
+        "/drain",
+        exchange -> {
+          if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, new JSONObject().put("error", "use POST"));
+            return;
+          }
+          this.mcAgent.drain();
+          respond(exchange, 202, this.status());
+        });
+
+    this.server.start();
+    System.out.println("control: listening on localhost:" + port);
+  }
+
+  public void stop() {
+    this.server.stop(0);
+  }
+
+  private JSONObject status() {
+    JSONArray bots = new JSONArray();
+    for (Bot bot : this.mcAgent.bots) {
+      JSONObject botJson = new JSONObject();
+      botJson.put("account", bot.account);
+      botJson.put("agent_id", bot.agent.getId());
+      botJson.put("connected", bot.getIsConnected());
+      botJson.put("online", bot.connection.isOnline());
+      botJson.put("draining", bot.isDraining());
+
+      Operator.ClientMetrics metrics = bot.operator.getClientMetrics();
+      JSONObject metricsJson = new JSONObject();
+      metricsJson.put("retries", metrics.retries());
+      metricsJson.put("failed_calls", metrics.failedCalls());
+      metricsJson.put("circuit_opens", metrics.circuitOpens());
+      metricsJson.put("rejected_calls", metrics.rejectedCalls());
+      metricsJson.put("circuit_open", metrics.circuitOpen());
+      botJson.put("operator_client", metricsJson);
+      bots.put(botJson);
+    }
+
+    return new JSONObject().put("bots", bots);
+  }
+
+  private static void respond(HttpExchange exchange, int status, JSONObject body)
+      throws IOException {
+    byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package me.mauldin.super_sorting_system;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import me.mauldin.super_sorting_system.Operator.Hold;
+
+/**
+ * Holds fetched from the operator, kept until their validUntil passes or they are invalidated.
+ * Lookups for an id that is already being fetched share that request instead of starting another.
+ */
+class HoldCache {
+  private final ConcurrentHashMap<String, CompletableFuture<Hold>> entries =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Resolves ids in order, passing only the ones that are neither cached nor in flight to fetch as
+   * a single batch.
+   */
+  CompletableFuture<List<Hold>> getAll(
+      List<String> ids, Function<List<String>, CompletableFuture<List<Hold>>> fetch) {
+    List<CompletableFuture<Hold>> results = new ArrayList<>();
+    List<String> missingIds = new ArrayList<>();
+    List<CompletableFuture<Hold>> missing = new ArrayList<>();
+
+    for (String id : ids) {
+      CompletableFuture<Hold> existing = this.entries.get(id);
+      if (existing != null && isExpired(existing)) {
+        this.entries.remove(id, existing);
+        existing = null;
+      }
+
+      if (existing == null) {
+        CompletableFuture<Hold> placeholder = new CompletableFuture<>();
+        existing = this.entries.putIfAbsent(id, placeholder);
+
+        if (existing == null) {
+          existing = placeholder;
+          missingIds.add(id);
+          missing.add(placeholder);
+        }
+      }
+
+      results.add(existing);
+    }
+
+    if (!missingIds.isEmpty()) {
+      CompletableFuture<List<Hold>> fetched;
+      try {
+        fetched = fetch.apply(missingIds);
+      } catch (RuntimeException e) {
+        fetched = CompletableFuture.failedFuture(e);
+      }
+
+      fetched.whenComplete(
+          (holds, error) -> {
+            // Every placeholder has to settle, or later lookups for its id wait on it forever
+            try {
+              if (error != null) {
+                this.fail(missingIds, missing, error);
+              } else if (holds.size() != missingIds.size()) {
+                this.fail(
+                    missingIds,
+                    missing,
+                    new IOException(
+                        "operator returned " + holds.size() + " holds for " + missingIds.size()));
+              } else {
+                for (int i = 0; i < missing.size(); i++) {
+                  missing.get(i).complete(holds.get(i));
+                }
+              }
+            } catch (RuntimeException e) {
+              this.fail(missingIds, missing, e);
+            }
+          });
+    }
+
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+        .thenApply(
+            ignored -> {
+              List<Hold> holds = new ArrayList<>();
+              for (CompletableFuture<Hold> result : results) {
+                holds.add(result.join());
+              }
+              return holds;
+            });
+  }
+
+  // Fails and forgets the placeholders that haven't completed, so the next lookup fetches again
+  private void fail(
+      List<String> missingIds, List<CompletableFuture<Hold>> missing, Throwable error) {
+    for (int i = 0; i < missing.size(); i++) {
+      if (missing.get(i).completeExceptionally(error)) {
+        this.entries.remove(missingIds.get(i), missing.get(i));
+      }
+    }
+  }
+
+  // Replaces an id's entry with a newer copy, such as one returned by a renewal
+  void put(Hold hold) {
+    this.entries.put(hold.id(), CompletableFuture.completedFuture(hold));
+  }
+
+  void invalidate(String id) {
+    this.entries.remove(id);
+  }
+
+  private static boolean isExpired(CompletableFuture<Hold> entry) {
+    // In flight fetches are shared, failed ones are removed by the fetch that made them
+    if (!entry.isDone() || entry.isCompletedExceptionally()) {
+      return false;
+    }
+
+    try {
+      return !Instant.now().isBefore(Instant.parse(entry.join().validUntil()));
+    } catch (DateTimeParseException e) {
+      return true;
+    }
+  }
+}
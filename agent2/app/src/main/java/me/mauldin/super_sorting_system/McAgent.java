@@ -1,23 +1,141 @@
 package me.mauldin.super_sorting_system;
 
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import me.mauldin.super_sorting_system.Operator.Agent;
 import me.mauldin.super_sorting_system.bot.Bot;
+import me.mauldin.super_sorting_system.bot.McAuth;
+import net.raphimc.minecraftauth.step.java.session.StepFullJavaSession.FullJavaSession;
+import org.geysermc.mcprotocollib.protocol.codec.MinecraftCodec;
 
 public class McAgent {
   public final Config config;
-  public final Bot bot;
-  public final Operator operator;
-  public final Agent agent;
+  public final List<Bot> bots = new ArrayList<>();
+  // Heartbeats, uploads and renewals for every bot. The tasks mostly just start async calls, so a
+  // couple of threads cover many bots
+  private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
 
   public McAgent() throws Exception {
     this.config = new Config();
-    this.operator = new Operator(this.config.getEndpoint(), this.config.getApiKey());
-    this.agent = this.operator.registerAgent();
-    this.bot = new Bot(this.config, this.operator, this.agent);
+
+    // Each bot registers as its own agent, but they share one client and its connection pool
+    HttpClient httpClient = HttpClient.newHttpClient();
+    PayloadCodec codec = PayloadCodec.forName(this.config.getPayloadCodec());
+
+    // Startup is mostly waiting on the operator, Microsoft and class loading, so every bot starts
+    // at once and each overlaps its own steps
+    try (ExecutorService startup = Executors.newVirtualThreadPerTaskExecutor()) {
+      startup.submit(McAgent::warmUpProtocol);
+
+      List<Future<Bot>> starting = new ArrayList<>();
+      for (String account : this.config.getAccounts()) {
+        starting.add(startup.submit(() -> this.startBot(account, httpClient, codec, startup)));
+      }
+
+      for (int i = 0; i < starting.size(); i++) {
+        String account = this.config.getAccounts().get(i);
+        try {
+          this.bots.add(await(starting.get(i)));
+          System.out.println("Started bot for " + account);
+        } catch (Exception e) {
+          System.err.println("Failed to start bot for " + account + ": " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private Bot startBot(
+      String account, HttpClient httpClient, PayloadCodec codec, ExecutorService startup)
+      throws Exception {
+    Operator operator =
+        new Operator(this.config.getEndpoint(), this.config.getApiKey(), codec, httpClient);
+
+    // Registration and the token refresh are independent round trips
+    Future<Agent> registration = startup.submit(operator::registerAgent);
+    // Offline-mode servers take the account name as is, without signing in
+    FullJavaSession javaSession = this.config.getOfflineAuth() ? null : McAuth.getSession(account);
+
+    return new Bot(
+        this.config, operator, await(registration), account, javaSession, this.scheduler);
+  }
+
+  // Initializing the packet registry is the largest part of the protocol's class loading
+  private static void warmUpProtocol() {
+    long startTime = System.nanoTime();
+    Objects.requireNonNull(MinecraftCodec.CODEC);
+    System.out.println(
+        "startup: protocol loaded in " + (System.nanoTime() - startTime) / 1000000 + "ms");
+  }
+
+  private static <T> T await(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /** Has every bot finish its current work and disconnect. */
+  public void drain() {
+    for (Bot bot : this.bots) {
+      bot.drain();
+    }
+  }
+
+  public void awaitShutdown() throws InterruptedException {
+    for (Bot bot : this.bots) {
+      bot.awaitShutdown();
+    }
+
+    this.scheduler.shutdown();
   }
 
   public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--smoke-test")) {
+      System.exit(SmokeTest.run() ? 0 : 1);
+    }
+
     System.out.println("Starting agent2");
     McAgent mcAgent = new McAgent();
+
+    // On SIGTERM, let the bots put their work down before the JVM exits
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  mcAgent.drain();
+                  long deadline = System.currentTimeMillis() + mcAgent.config.getDrainTimeoutMs();
+                  try {
+                    for (Bot bot : mcAgent.bots) {
+                      long remainingMs = Math.max(0, deadline - System.currentTimeMillis());
+                      if (!bot.awaitShutdown(remainingMs)) {
+                        System.out.println("drain: timed out waiting for " + bot.account);
+                      }
+                    }
+                  } catch (InterruptedException e) {
+                    System.out.println("drain: interrupted");
+                  }
+                }));
+
+    ControlServer controlServer = null;
+    if (mcAgent.config.getControlPort() > 0) {
+      controlServer = new ControlServer(mcAgent, mcAgent.config.getControlPort());
+    }
+
+    mcAgent.awaitShutdown();
+
+    if (controlServer != null) {
+      controlServer.stop();
+    }
   }
 }
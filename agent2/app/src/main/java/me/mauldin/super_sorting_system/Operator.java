@@ -1,23 +1,752 @@
 package me.mauldin.super_sorting_system;
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 public class Operator {
+  // Extra time given to a long poll beyond its requested wait before the client gives up on it
+  private static final long LONG_POLL_GRACE_MS = 10000;
+  private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(10);
+  // Uploads carry whole inventories or chunks worth of signs, and pathfinding may search far
+  private static final Duration UPLOAD_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final Duration PATHFINDING_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+  private static final int MAX_IN_FLIGHT_REQUESTS = 8;
+  private static final int MAX_ATTEMPTS = 3;
+  private static final long RETRY_BASE_BACKOFF_MS = 250;
+  private static final long RETRY_MAX_BACKOFF_MS = 4000;
+  // Whether a call may be safely repeated if we can't tell if the first attempt landed
+  private static final boolean IDEMPOTENT = true;
+  private static final boolean NOT_IDEMPOTENT = false;
+
   private final String baseUrl;
   private final String apiKey;
   private final HttpClient httpClient;
+  private final PayloadCodec codec;
+  private final RequestLimiter limiter;
+  private final HoldCache holdCache = new HoldCache();
+  private final CircuitBreaker circuitBreaker = new CircuitBreaker(5, 2000, 60000);
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong failedCalls = new AtomicLong();
+  private final AtomicLong circuitOpens = new AtomicLong();
+  private final AtomicLong rejectedCalls = new AtomicLong();
+  private volatile VersionedSignConfig signConfig;
+
+  private record VersionedSignConfig(String etag, CompiledSignConfig config) {}
+
+  private volatile OperatorChannel channel;
+  // The connection attempt in flight, so repeated opens don't stack up while the operator is down
+  private CompletableFuture<Void> channelConnect;
+  // Set on shutdown so an attempt still in flight doesn't leave a channel open
+  private boolean channelClosed = false;
 
   public Operator(String baseUrl, String apiKey) {
+    this(baseUrl, apiKey, new PayloadCodec.Json());
+  }
+
+  public Operator(String baseUrl, String apiKey, PayloadCodec codec) {
+    this(baseUrl, apiKey, codec, HttpClient.newHttpClient());
+  }
+
+  /** Makes calls through the given client, which may be shared with other Operators. */
+  public Operator(String baseUrl, String apiKey, PayloadCodec codec, HttpClient httpClient) {
     this.baseUrl = baseUrl;
     this.apiKey = apiKey;
-    this.httpClient = HttpClient.newHttpClient();
+    this.codec = codec;
+    this.httpClient = httpClient;
+    this.limiter = new RequestLimiter(MAX_IN_FLIGHT_REQUESTS);
+  }
+
+  /** Opens the channel if it isn't open, waiting for the attempt. */
+  public void openChannel(Agent agent) {
+    this.openChannelAsync(agent).join();
+  }
+
+  /**
+   * Opens (or reopens, if the previous one dropped) the persistent channel for this agent, unless
+   * an attempt is already in flight, without blocking. Agent calls go over the channel while it is
+   * open and fall back to REST otherwise. Failures are logged and calls go over REST until a later
+   * attempt succeeds.
+   */
+  public synchronized CompletableFuture<Void> openChannelAsync(Agent agent) {
+    OperatorChannel existing = this.channel;
+    if (this.channelClosed || (existing != null && existing.isOpen())) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (this.channelConnect != null && !this.channelConnect.isDone()) {
+      return this.channelConnect;
+    }
+
+    URI uri = URI.create(agentEndpoint("channel").replaceFirst("^http", "ws"));
+    this.channelConnect =
+        OperatorChannel.connectAsync(this.httpClient, uri, this.apiKey, agent.getId())
+            .thenAccept(
+                channel -> {
+                  synchronized (this) {
+                    if (this.channelClosed) {
+                      channel.close();
+                      return;
+                    }
+                    this.channel = channel;
+                  }
+                  System.out.println("channel: opened");
+                })
+            .exceptionally(
+                error -> {
+                  System.out.println("channel: unable to open, using REST: " + error);
+                  return null;
+                });
+    return this.channelConnect;
+  }
+
+  public synchronized void closeChannel() {
+    this.channelClosed = true;
+    OperatorChannel existing = this.channel;
+    if (existing != null) {
+      existing.close();
+    }
+  }
+
+  // Sends over the channel when it is open, otherwise (or if the channel fails) over REST
+  private CompletableFuture<Reader> agentCall(
+      String op, JSONObject body, HttpRequest restRequest, Duration timeout, boolean idempotent) {
+    return resilient(
+        idempotent,
+        () ->
+            this.limiter.submit(
+                () -> {
+                  OperatorChannel channel = this.channel;
+                  if (channel == null || !channel.isOpen()) {
+                    return sendRest(restRequest);
+                  }
+
+                  return channel
+                      .request(op, body, timeout)
+                      .<Reader>thenApply(response -> new StringReader(response.body()))
+                      .exceptionallyCompose(
+                          error -> {
+                            System.out.println(
+                                "channel: " + op + " failed, falling back to REST: " + error);
+                            return sendRest(restRequest);
+                          });
+                }));
+  }
+
+  private CompletableFuture<Reader> send(HttpRequest request, boolean idempotent) {
+    return resilient(idempotent, () -> this.limiter.submit(() -> sendRest(request)));
+  }
+
+  private CompletableFuture<Reader> sendRest(HttpRequest request) {
+    return httpClient
+        .sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+        .thenApply(Operator::checkAvailable)
+        .thenApply(this::decode);
+  }
+
+  // Gateway errors mean the operator itself is unreachable, so they count as transport failures
+  private static HttpResponse<InputStream> checkAvailable(HttpResponse<InputStream> response) {
+    int status = response.statusCode();
+    if (status == 502 || status == 503 || status == 504) {
+      try {
+        response.body().close();
+      } catch (IOException e) {
+        // Nothing more to do with this response
+      }
+      throw new UncheckedIOException(
+          new IOException("operator: unavailable (HTTP " + status + ")"));
+    }
+
+    return response;
+  }
+
+  /**
+   * Runs a call through the circuit breaker. Transport failures of idempotent calls are retried
+   * with jittered exponential backoff, and a call made while the breaker is open fails with
+   * OperatorUnavailableException without reaching the operator.
+   */
+  private <T> CompletableFuture<T> resilient(
+      boolean idempotent, Supplier<CompletableFuture<T>> call) {
+    return attempt(idempotent, call, 0);
+  }
+
+  private <T> CompletableFuture<T> attempt(
+      boolean idempotent, Supplier<CompletableFuture<T>> call, int attempt) {
+    long retryAfterMs = this.circuitBreaker.tryAcquire();
+    if (retryAfterMs > 0) {
+      this.rejectedCalls.incrementAndGet();
+      return CompletableFuture.failedFuture(new OperatorUnavailableException(retryAfterMs));
+    }
+
+    return call.get()
+        .handle(
+            (value, error) -> {
+              if (error == null) {
+                if (this.circuitBreaker.recordSuccess()) {
+                  System.out.println("operator: reachable again, circuit closed");
+                }
+                return CompletableFuture.completedFuture(value);
+              }
+
+              Throwable cause = unwrap(error);
+              if (!(cause instanceof IOException)) {
+                // The operator answered, it just wasn't something we could use
+                this.circuitBreaker.recordSuccess();
+                return CompletableFuture.<T>failedFuture(cause);
+              }
+
+              this.failedCalls.incrementAndGet();
+              if (this.circuitBreaker.recordFailure()) {
+                this.circuitOpens.incrementAndGet();
+                System.out.println("operator: unreachable, circuit opened: " + cause);
+              }
+
+              if (!idempotent
+                  || attempt + 1 >= MAX_ATTEMPTS
+                  || this.circuitBreaker.isOpen()
+                  || cause instanceof OperatorUnavailableException) {
+                return CompletableFuture.<T>failedFuture(cause);
+              }
+
+              this.retries.incrementAndGet();
+              Executor delayed =
+                  CompletableFuture.delayedExecutor(backoffMs(attempt), TimeUnit.MILLISECONDS);
+              return CompletableFuture.runAsync(() -> {}, delayed)
+                  .thenCompose(ignored -> attempt(idempotent, call, attempt + 1));
+            })
+        .thenCompose(result -> result);
+  }
+
+  // Full jitter, so agents that failed together don't all come back at the same moment
+  private static long backoffMs(int attempt) {
+    long ceiling = Math.min(RETRY_MAX_BACKOFF_MS, RETRY_BASE_BACKOFF_MS << attempt);
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  private static Throwable unwrap(Throwable error) {
+    while ((error instanceof CompletionException || error instanceof ExecutionException)
+        && error.getCause() != null) {
+      error = error.getCause();
+    }
+    if (error instanceof UncheckedIOException uncheckedIOException) {
+      return uncheckedIOException.getCause();
+    }
+    return error;
+  }
+
+  public ClientMetrics getClientMetrics() {
+    return new ClientMetrics(
+        this.retries.get(),
+        this.failedCalls.get(),
+        this.circuitOpens.get(),
+        this.rejectedCalls.get(),
+        this.circuitBreaker.isOpen());
+  }
+
+  public record ClientMetrics(
+      long retries, long failedCalls, long circuitOpens, long rejectedCalls, boolean circuitOpen) {}
+
+  /** Timings an agent measured since its last report. */
+  public record TelemetryReport(
+      TravelTiming travel,
+      List<LocationTiming> portals,
+      List<LocationTiming> windowOpens,
+      long transfers,
+      long transferMs) {}
+
+  // Sums over travel legs of their length in blocks and duration in milliseconds
+  public record TravelTiming(
+      long legs, double blocks, double ms, double blocksTimesMs, double blocksSquared) {}
+
+  public record LocationTiming(Location location, long count, long totalMs) {}
+
+  public CompletableFuture<String> sendTelemetryAsync(Agent agent, TelemetryReport report) {
+    TravelTiming travel = report.travel();
+    JSONObject travelJson = new JSONObject();
+    travelJson.put("legs", travel.legs());
+    travelJson.put("blocks", travel.blocks());
+    travelJson.put("ms", travel.ms());
+    travelJson.put("blocks_times_ms", travel.blocksTimesMs());
+    travelJson.put("blocks_squared", travel.blocksSquared());
+
+    JSONObject body = new JSONObject();
+    body.put("travel", travelJson);
+    body.put("portals", locationTimingsToJson(report.portals()));
+    body.put("window_opens", locationTimingsToJson(report.windowOpens()));
+    body.put("transfers", report.transfers());
+    body.put("transfer_ms", report.transferMs());
+
+    HttpRequest request =
+        withJsonBody(agentRequestBuilder(agent).uri(URI.create(agentEndpoint("telemetry"))), body)
+            .build();
+
+    return agentCall("telemetry", body, request, DEFAULT_REQUEST_TIMEOUT, NOT_IDEMPOTENT)
+        .thenApply(Operator::readString);
+  }
+
+  private JSONArray locationTimingsToJson(List<LocationTiming> timings) {
+    JSONArray array = new JSONArray();
+    for (LocationTiming timing : timings) {
+      JSONObject json = new JSONObject();
+      json.put("location", locationToJson(timing.location()));
+      json.put("count", timing.count());
+      json.put("total_ms", timing.totalMs());
+      array.put(json);
+    }
+    return array;
+  }
+
+  private Reader decode(HttpResponse<InputStream> response) {
+    try {
+      return this.codec.decode(response);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Parses straight off the (possibly compressed) response stream into a tree, for payloads that
+  // are small or read as a whole
+  private static JSONObject readJson(Reader reader) {
+    try (reader) {
+      return new JSONObject(new JSONTokener(reader));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private interface StreamedParser<T> {
+    T parse(JsonReader reader) throws IOException;
+  }
+
+  // Operation and hold payloads are parsed field by field straight off the response stream,
+  // without building a JSONObject tree first
+  private static <T> Function<Reader, T> streamed(StreamedParser<T> parser) {
+    return body -> {
+      try (JsonReader reader = new JsonReader(body)) {
+        return parser.parse(reader);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    };
+  }
+
+  // Parses one member of an object, skipping the rest
+  private static <T> T readMember(JsonReader reader, String name, StreamedParser<T> parser)
+      throws IOException {
+    T value = null;
+    boolean found = false;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if (reader.nextName().equals(name)) {
+        value = parser.parse(reader);
+        found = true;
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (!found) {
+      throw new IOException("response missing " + name);
+    }
+    return value;
+  }
+
+  // Consumes a null if one is next
+  private static boolean skipNull(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return true;
+    }
+    return false;
+  }
+
+  private static PollOperationResponse readPollOperationResponse(JsonReader reader)
+      throws IOException {
+    String type = null;
+    Operation operation = null;
+    List<Operation> additionalOperations = new ArrayList<>();
+    Integer[] carriedSources = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (skipNull(reader)) {
+        continue;
+      }
+
+      switch (name) {
+        case "type" -> type = reader.nextString();
+        case "operation" -> operation = readOperation(reader);
+        case "additional_operations" -> {
+          reader.beginArray();
+          while (reader.hasNext()) {
+            additionalOperations.add(readOperation(reader));
+          }
+          reader.endArray();
+        }
+        case "carried_sources" -> {
+          List<Integer> carried = new ArrayList<>();
+          reader.beginArray();
+          while (reader.hasNext()) {
+            carried.add(skipNull(reader) ? null : reader.nextInt());
+          }
+          reader.endArray();
+          carriedSources = carried.toArray(new Integer[0]);
+        }
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if ("OperationUnavailable".equals(type)) {
+      return new PollOperationResponse.OperationUnavailable();
+    }
+    if (operation == null) {
+      throw new IOException("poll response missing operation");
+    }
+    return new PollOperationResponse.OperationAvailable(
+        operation, additionalOperations, carriedSources);
+  }
+
+  private static Operation readOperation(JsonReader reader) throws IOException {
+    String id = null;
+    String priority = null;
+    String status = null;
+    OperationKind kind = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "id" -> id = reader.nextString();
+        case "priority" -> priority = reader.nextString();
+        case "status" -> status = reader.nextString();
+        case "kind" -> kind = readOperationKind(reader);
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return new Operation(
+        required(id, "operation id"),
+        required(priority, "operation priority"),
+        required(status, "operation status"),
+        required(kind, "operation kind"));
+  }
+
+  // Fields can arrive in any order, so they are collected before the kind is built from its type
+  private static OperationKind readOperationKind(JsonReader reader) throws IOException {
+    String type = null;
+    Map<String, Location> locations = new HashMap<>();
+    Map<String, Vec3> vec3s = new HashMap<>();
+    Map<String, String[]> holdIds = new HashMap<>();
+    String shulkerHold = null;
+    int[] counts = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (skipNull(reader)) {
+        continue;
+      }
+
+      switch (name) {
+        case "type" -> type = reader.nextString();
+        case "location", "drop_from", "node_location", "shulker_station_location" ->
+            locations.put(name, readLocation(reader));
+        case "open_from", "take_portal", "aim_towards", "chest_location" ->
+            vec3s.put(name, readVec3(reader));
+        case "source_holds", "destination_holds" -> holdIds.put(name, readHoldIds(reader));
+        case "shulker_hold" -> shulkerHold = reader.nextString().intern();
+        case "counts" -> {
+          List<Integer> countList = new ArrayList<>();
+          reader.beginArray();
+          while (reader.hasNext()) {
+            countList.add(reader.nextInt());
+          }
+          reader.endArray();
+          counts = countList.stream().mapToInt(Integer::intValue).toArray();
+        }
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if (type == null) {
+      throw new IOException("operation kind missing type");
+    }
+    switch (type) {
+      case "ScanInventory":
+        return new ScanInventoryOperationKind(
+            required(locations.get("location"), "location"),
+            required(vec3s.get("open_from"), "open_from"));
+      case "ScanSigns":
+        return new ScanSignsOperationKind(
+            required(locations.get("location"), "location"), vec3s.get("take_portal"));
+      case "MoveItems":
+        return new MoveItemsOperationKind(
+            required(holdIds.get("source_holds"), "source_holds"),
+            required(holdIds.get("destination_holds"), "destination_holds"),
+            required(counts, "counts"));
+      case "DropItems":
+        return new DropItemsOperationKind(
+            required(locations.get("drop_from"), "drop_from"),
+            required(vec3s.get("aim_towards"), "aim_towards"),
+            required(holdIds.get("source_holds"), "source_holds"));
+      case "ImportInventory":
+        return new ImportInventoryOperationKind(
+            required(vec3s.get("chest_location"), "chest_location"),
+            required(locations.get("node_location"), "node_location"),
+            required(holdIds.get("destination_holds"), "destination_holds"));
+      case "LoadShulker":
+        return new LoadShulkerOperationKind(
+            required(locations.get("shulker_station_location"), "shulker_station_location"),
+            required(shulkerHold, "shulker_hold"),
+            required(holdIds.get("source_holds"), "source_holds"));
+      case "UnloadShulker":
+        return new UnloadShulkerOperationKind(
+            required(locations.get("shulker_station_location"), "shulker_station_location"),
+            required(shulkerHold, "shulker_hold"),
+            required(holdIds.get("destination_holds"), "destination_holds"));
+      default:
+        throw new IllegalArgumentException("Unknown operation type: " + type);
+    }
+  }
+
+  // Hold ids are compared and used as map keys all over the agent, so share one copy of each.
+  // LoadShulker's source holds may contain nulls for sources it doesn't need
+  private static String[] readHoldIds(JsonReader reader) throws IOException {
+    List<String> ids = new ArrayList<>();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      ids.add(skipNull(reader) ? null : reader.nextString().intern());
+    }
+    reader.endArray();
+    return ids.toArray(new String[0]);
+  }
+
+  private static List<Hold> readHolds(JsonReader reader) throws IOException {
+    List<Hold> holds = new ArrayList<>();
+    reader.beginArray();
+    while (reader.hasNext()) {
+      holds.add(readHold(reader));
+    }
+    reader.endArray();
+    return holds;
+  }
+
+  private static Hold readHold(JsonReader reader) throws IOException {
+    String id = null;
+    Location location = null;
+    Integer slot = null;
+    String validUntil = null;
+    Vec3 openFrom = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "id" -> id = reader.nextString().intern();
+        case "location" -> location = readLocation(reader);
+        case "slot" -> slot = reader.nextInt();
+        case "valid_until" -> validUntil = reader.nextString();
+        case "open_from" -> openFrom = readVec3(reader);
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return new Hold(
+        required(id, "hold id"),
+        required(location, "hold location"),
+        required(slot, "hold slot"),
+        required(validUntil, "hold valid_until"),
+        required(openFrom, "hold open_from"));
+  }
+
+  private static FreeHoldResponse readFreeHoldResponse(JsonReader reader) throws IOException {
+    String type = null;
+    Hold hold = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (skipNull(reader)) {
+        continue;
+      }
+
+      switch (name) {
+        case "type" -> type = reader.nextString();
+        case "hold" -> hold = readHold(reader);
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if ("HoldUnavailable".equals(type)) {
+      return new FreeHoldResponse.HoldUnavailable();
+    }
+    return new FreeHoldResponse.HoldAcquired(required(hold, "hold"));
+  }
+
+  private static PathfindingResponse readPathfindingResponse(JsonReader reader) throws IOException {
+    String type = null;
+    List<PfResultNode> path = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (skipNull(reader)) {
+        continue;
+      }
+
+      switch (name) {
+        case "type" -> type = reader.nextString();
+        case "path" -> {
+          path = new ArrayList<>();
+          reader.beginArray();
+          while (reader.hasNext()) {
+            path.add(readPfResultNode(reader));
+          }
+          reader.endArray();
+        }
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    if ("Error".equals(type)) {
+      return new PathfindingResponse.Error();
+    }
+    return new PathfindingResponse.PathFound(required(path, "pathfinding path"));
+  }
+
+  // Externally tagged, either {"Vec": vec3} or {"Portal": {"vec": vec3, "destination_dim": dim}}
+  private static PfResultNode readPfResultNode(JsonReader reader) throws IOException {
+    PfResultNode node = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "Vec" -> node = new PfResultNode.Vec(readVec3(reader));
+        case "Portal" -> {
+          Vec3 vec = null;
+          Dimension destinationDim = null;
+          reader.beginObject();
+          while (reader.hasNext()) {
+            switch (reader.nextName()) {
+              case "vec" -> vec = readVec3(reader);
+              case "destination_dim" -> destinationDim = Dimension.valueOf(reader.nextString());
+              default -> reader.skipValue();
+            }
+          }
+          reader.endObject();
+          node =
+              new PfResultNode.Portal(
+                  required(vec, "portal vec"), required(destinationDim, "portal destination_dim"));
+        }
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return required(node, "path node");
+  }
+
+  private static Location readLocation(JsonReader reader) throws IOException {
+    Vec3 vec3 = null;
+    Dimension dim = null;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "vec3" -> vec3 = readVec3(reader);
+        case "dim" -> dim = Dimension.valueOf(reader.nextString());
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return new Location(required(vec3, "location vec3"), required(dim, "location dim"));
+  }
+
+  private static Vec3 readVec3(JsonReader reader) throws IOException {
+    int x = 0;
+    int y = 0;
+    int z = 0;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "x" -> x = reader.nextInt();
+        case "y" -> y = reader.nextInt();
+        case "z" -> z = reader.nextInt();
+        default -> reader.skipValue();
+      }
+    }
+    reader.endObject();
+
+    return new Vec3(x, y, z);
+  }
+
+  private static <T> T required(T value, String what) throws IOException {
+    if (value == null) {
+      throw new IOException("response missing " + what);
+    }
+    return value;
+  }
+
+  private static String readString(Reader reader) {
+    StringWriter writer = new StringWriter();
+    try (reader) {
+      reader.transferTo(writer);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return writer.toString();
+  }
+
+  // Blocks on an async call, surfacing its failure the way the blocking API always has
+  private static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof UncheckedIOException uncheckedIOException) {
+        throw uncheckedIOException.getCause();
+      } else if (cause instanceof IOException ioException) {
+        throw ioException;
+      } else if (cause instanceof RuntimeException runtimeException) {
+        throw runtimeException;
+      }
+      throw new IOException("operator: request failed", cause);
+    }
   }
 
   private String agentEndpoint(String path) {
@@ -29,9 +758,28 @@ public class Operator {
   }
 
   private HttpRequest.Builder requestBuilder() {
-    return HttpRequest.newBuilder()
-        .header("X-Api-Key", apiKey)
-        .header("Content-Type", "application/json");
+    HttpRequest.Builder builder =
+        HttpRequest.newBuilder()
+            .header("X-Api-Key", apiKey)
+            .header("Content-Type", "application/json")
+            .timeout(DEFAULT_REQUEST_TIMEOUT);
+
+    // Lets the operator compress responses the same way we compress requests
+    String encoding = this.codec.getContentEncoding();
+    if (encoding != null) {
+      builder.header("Accept-Encoding", encoding);
+    }
+
+    return builder;
+  }
+
+  private HttpRequest.Builder withJsonBody(HttpRequest.Builder builder, JSONObject body) {
+    String encoding = this.codec.getContentEncoding();
+    if (encoding != null) {
+      builder.header("Content-Encoding", encoding);
+    }
+
+    return builder.POST(this.codec.encode(body));
   }
 
   private HttpRequest.Builder agentRequestBuilder(Agent agent) {
@@ -39,42 +787,54 @@ public class Operator {
   }
 
   public Agent registerAgent() throws IOException, InterruptedException {
+    return await(registerAgentAsync());
+  }
+
+  public CompletableFuture<Agent> registerAgentAsync() {
     HttpRequest request =
         requestBuilder()
             .uri(URI.create(agentEndpoint("register")))
             .POST(HttpRequest.BodyPublishers.noBody())
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    JSONObject json = new JSONObject(response.body());
-    JSONObject agentJson = json.getJSONObject("agent");
+    return send(request, NOT_IDEMPOTENT)
+        .thenApply(Operator::readJson)
+        .thenApply(
+            json -> {
+              JSONObject agentJson = json.getJSONObject("agent");
 
-    return new Agent(agentJson.getString("id"), agentJson.getString("last_seen"));
+              return new Agent(agentJson.getString("id"), agentJson.getString("last_seen"));
+            });
   }
 
   public String heartbeat(Agent agent) throws IOException, InterruptedException {
+    return await(heartbeatAsync(agent));
+  }
+
+  public CompletableFuture<String> heartbeatAsync(Agent agent) {
     HttpRequest request =
         agentRequestBuilder(agent)
             .uri(URI.create(agentEndpoint("heartbeat")))
             .POST(HttpRequest.BodyPublishers.noBody())
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    return response.body();
+    return agentCall("heartbeat", null, request, DEFAULT_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(Operator::readString);
   }
 
   public String alert(String description, Agent agent) throws IOException, InterruptedException {
+    return await(alertAsync(description, agent));
+  }
+
+  public CompletableFuture<String> alertAsync(String description, Agent agent) {
     JSONObject body = new JSONObject();
     body.put("description", description);
 
     HttpRequest request =
-        agentRequestBuilder(agent)
-            .uri(URI.create(agentEndpoint("alert")))
-            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+        withJsonBody(agentRequestBuilder(agent).uri(URI.create(agentEndpoint("alert"))), body)
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    return response.body();
+    return send(request, NOT_IDEMPOTENT).thenApply(Operator::readString);
   }
 
   public static class PollOperationResponse {
@@ -86,9 +846,18 @@ public class Operator {
 
     public static class OperationAvailable extends PollOperationResponse {
       private final Operation operation;
+      private final List<Operation> additionalOperations;
+      private final Integer[] carriedSources;
 
       public OperationAvailable(Operation operation) {
+        this(operation, List.of(), null);
+      }
+
+      public OperationAvailable(
+          Operation operation, List<Operation> additionalOperations, Integer[] carriedSources) {
         this.operation = operation;
+        this.additionalOperations = additionalOperations;
+        this.carriedSources = carriedSources;
       }
 
       public String getType() {
@@ -98,77 +867,243 @@ public class Operator {
       public Operation getOperation() {
         return operation;
       }
+
+      // Operations claimed alongside operation, to be carried out in the same trip
+      public List<Operation> getAdditionalOperations() {
+        return additionalOperations;
+      }
+
+      /**
+       * For an operation claimed with items the agent was already carrying, the player inventory
+       * slot to use for each source hold instead of picking it up (null entries are picked up as
+       * usual). Null when every source is picked up.
+       */
+      public Integer[] getCarriedSources() {
+        return carriedSources;
+      }
+
+      public List<Operation> getOperations() {
+        List<Operation> operations = new ArrayList<>();
+        operations.add(operation);
+        operations.addAll(additionalOperations);
+        return operations;
+      }
     }
   }
 
   public PollOperationResponse pollOperation(
       Agent agent, Location location, boolean hasClearInventory)
       throws IOException, InterruptedException {
+    return pollOperation(agent, location, hasClearInventory, 0);
+  }
+
+  /**
+   * Polls for an operation. With a non-zero waitMs the operator holds the request open until an
+   * operation becomes available or the wait elapses.
+   */
+  public PollOperationResponse pollOperation(
+      Agent agent, Location location, boolean hasClearInventory, long waitMs)
+      throws IOException, InterruptedException {
+    return await(pollOperationAsync(agent, location, hasClearInventory, waitMs, 1, null));
+  }
+
+  /**
+   * Polls for up to maxOperations operations. Operations beyond the first are only handed out when
+   * they can be carried out in the same trip, and are returned as additional operations.
+   */
+  public PollOperationResponse pollOperation(
+      Agent agent,
+      Location location,
+      boolean hasClearInventory,
+      long waitMs,
+      int maxOperations,
+      AgentCapabilities capabilities)
+      throws IOException, InterruptedException {
+    return await(
+        pollOperationAsync(
+            agent, location, hasClearInventory, waitMs, maxOperations, capabilities));
+  }
+
+  /**
+   * With capabilities the operator can pick the operation that is cheapest for this agent rather
+   * than going by location alone. They may be null.
+   */
+  public CompletableFuture<PollOperationResponse> pollOperationAsync(
+      Agent agent,
+      Location location,
+      boolean hasClearInventory,
+      long waitMs,
+      int maxOperations,
+      AgentCapabilities capabilities) {
     JSONObject body = new JSONObject();
     body.put("location", locationToJson(location));
     body.put("has_clear_inventory", hasClearInventory);
+    body.put("wait_ms", waitMs);
+    body.put("max_operations", maxOperations);
+    if (capabilities != null) {
+      body.put("capabilities", capabilitiesToJson(capabilities));
+    }
 
+    Duration timeout = Duration.ofMillis(waitMs + LONG_POLL_GRACE_MS);
     HttpRequest request =
-        agentRequestBuilder(agent)
-            .uri(URI.create(agentEndpoint("poll_operation")))
-            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+        withJsonBody(
+                agentRequestBuilder(agent)
+                    .uri(URI.create(agentEndpoint("poll_operation")))
+                    .timeout(timeout),
+                body)
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    JSONObject json = new JSONObject(response.body());
-
-    String type = json.getString("type");
-    if ("OperationUnavailable".equals(type)) {
-      return new PollOperationResponse.OperationUnavailable();
-    } else {
-      Operation operation = operationFromJson(json.getJSONObject("operation"));
-      return new PollOperationResponse.OperationAvailable(operation);
-    }
+    return agentCall("poll_operation", body, request, timeout, NOT_IDEMPOTENT)
+        .thenApply(streamed(Operator::readPollOperationResponse));
   }
 
   public String operationComplete(Agent agent, Operation operation, String finalStatus)
       throws IOException, InterruptedException {
+    return await(operationCompleteAsync(agent, operation, finalStatus));
+  }
+
+  public CompletableFuture<String> operationCompleteAsync(
+      Agent agent, Operation operation, String finalStatus) {
+    // The operator releases an operation's holds once it completes
+    for (String holdId : holdIdsOf(operation.getKind())) {
+      this.holdCache.invalidate(holdId);
+    }
+
     JSONObject body = new JSONObject();
     body.put("operation_id", operation.getId());
     body.put("final_status", finalStatus);
 
     HttpRequest request =
-        agentRequestBuilder(agent)
-            .uri(URI.create(agentEndpoint("operation_complete")))
-            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+        withJsonBody(
+                agentRequestBuilder(agent).uri(URI.create(agentEndpoint("operation_complete"))),
+                body)
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    return response.body();
+    // A repeat of a completion that already landed is rejected harmlessly, so it is safe to retry
+    return agentCall("operation_complete", body, request, DEFAULT_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(Operator::readString);
+  }
+
+  /**
+   * Reports an operation complete and claims the agent's next one in the same request, so the bot
+   * has its next job as soon as the current one is finished.
+   */
+  public CompletableFuture<PollOperationResponse> completeAndPollAsync(
+      Agent agent,
+      Operation operation,
+      String finalStatus,
+      Location location,
+      boolean hasClearInventory,
+      int maxOperations,
+      AgentCapabilities capabilities) {
+    for (String holdId : holdIdsOf(operation.getKind())) {
+      this.holdCache.invalidate(holdId);
+    }
+
+    JSONObject pollNext = new JSONObject();
+    pollNext.put("location", locationToJson(location));
+    pollNext.put("has_clear_inventory", hasClearInventory);
+    pollNext.put("max_operations", maxOperations);
+    if (capabilities != null) {
+      pollNext.put("capabilities", capabilitiesToJson(capabilities));
+    }
+
+    JSONObject body = new JSONObject();
+    body.put("operation_id", operation.getId());
+    body.put("final_status", finalStatus);
+    body.put("poll_next", pollNext);
+
+    HttpRequest request =
+        withJsonBody(
+                agentRequestBuilder(agent).uri(URI.create(agentEndpoint("operation_complete"))),
+                body)
+            .build();
+
+    // A repeat after the first attempt landed is answered with the operation it claimed
+    return agentCall("operation_complete", body, request, DEFAULT_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(
+            streamed(reader -> readMember(reader, "next", Operator::readPollOperationResponse)));
   }
 
   public String inventoryScanned(
       List<Item> slots, Location inventoryLocation, Vec3 openFrom, Agent agent)
       throws IOException, InterruptedException {
+    return await(inventoryScannedAsync(slots, inventoryLocation, openFrom, List.of(), agent));
+  }
+
+  /**
+   * Uploads a scanned inventory. fulfilledHolds are holds of the agent's operations it finished
+   * with in this inventory before the scan.
+   */
+  public CompletableFuture<String> inventoryScannedAsync(
+      List<Item> slots,
+      Location inventoryLocation,
+      Vec3 openFrom,
+      List<String> fulfilledHolds,
+      Agent agent) {
     JSONObject body = new JSONObject();
     body.put("location", locationToJson(inventoryLocation));
     body.put("slots", itemsToJsonArray(slots));
     body.put("open_from", vec3ToJson(openFrom));
-
-    System.out.println(body.toString());
+    if (!fulfilledHolds.isEmpty()) {
+      body.put("fulfilled_holds", new JSONArray(fulfilledHolds));
+    }
 
     HttpRequest request =
-        agentRequestBuilder(agent)
-            .uri(URI.create(agentEndpoint("inventory_scanned")))
-            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+        withJsonBody(
+                agentRequestBuilder(agent)
+                    .uri(URI.create(agentEndpoint("inventory_scanned")))
+                    .timeout(UPLOAD_REQUEST_TIMEOUT),
+                body)
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    return response.body();
+    return agentCall("inventory_scanned", body, request, UPLOAD_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(Operator::readString);
   }
 
   public Hold getHold(String id, Agent agent) throws IOException, InterruptedException {
+    return await(getHoldAsync(id, agent));
+  }
+
+  public CompletableFuture<Hold> getHoldAsync(String id, Agent agent) {
+    return getHoldsAsync(List.of(id), agent).thenApply(holds -> holds.get(0));
+  }
+
+  private CompletableFuture<Hold> fetchHold(String id, Agent agent) {
     HttpRequest request =
         agentRequestBuilder(agent).uri(URI.create(agentEndpoint("hold/" + id))).GET().build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    JSONObject json = new JSONObject(response.body());
-    return holdFromJson(json.getJSONObject("hold"));
+    JSONObject body = new JSONObject();
+    body.put("hold_id", id);
+
+    return agentCall("get_hold", body, request, DEFAULT_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(streamed(reader -> readMember(reader, "hold", Operator::readHold)));
+  }
+
+  // Fetches several holds in one request, returned in the order of ids
+  public List<Hold> getHolds(List<String> ids, Agent agent)
+      throws IOException, InterruptedException {
+    return await(getHoldsAsync(ids, agent));
+  }
+
+  public CompletableFuture<List<Hold>> getHoldsAsync(List<String> ids, Agent agent) {
+    return this.holdCache.getAll(ids, missingIds -> fetchHolds(missingIds, agent));
+  }
+
+  private CompletableFuture<List<Hold>> fetchHolds(List<String> ids, Agent agent) {
+    if (ids.size() == 1) {
+      return fetchHold(ids.get(0), agent).thenApply(List::of);
+    }
+
+    JSONObject body = new JSONObject();
+    body.put("hold_ids", new JSONArray(ids));
+
+    HttpRequest request =
+        withJsonBody(agentRequestBuilder(agent).uri(URI.create(agentEndpoint("holds"))), body)
+            .build();
+
+    return agentCall("get_holds", body, request, DEFAULT_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(streamed(reader -> readMember(reader, "holds", Operator::readHolds)));
   }
 
   public static class FreeHoldResponse {
@@ -195,30 +1130,54 @@ public class Operator {
     }
   }
 
+  /**
+   * Pushes back the expiry of several holds in one request. Holds that no longer exist are left out
+   * of the result.
+   */
+  public CompletableFuture<List<Hold>> renewHoldsAsync(List<String> ids, Agent agent) {
+    JSONObject body = new JSONObject();
+    body.put("hold_ids", new JSONArray(ids));
+
+    HttpRequest request =
+        withJsonBody(agentRequestBuilder(agent).uri(URI.create(agentEndpoint("holds/renew"))), body)
+            .build();
+
+    return agentCall("renew_holds", body, request, DEFAULT_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(streamed(reader -> readMember(reader, "holds", Operator::readHolds)))
+        .thenApply(
+            holds -> {
+              for (Hold hold : holds) {
+                this.holdCache.put(hold);
+              }
+              return holds;
+            });
+  }
+
   public FreeHoldResponse getFreeHold(Agent agent) throws IOException, InterruptedException {
+    return await(getFreeHoldAsync(agent));
+  }
+
+  public CompletableFuture<FreeHoldResponse> getFreeHoldAsync(Agent agent) {
     HttpRequest request =
         agentRequestBuilder(agent)
             .uri(URI.create(agentEndpoint("hold/free")))
             .POST(HttpRequest.BodyPublishers.noBody())
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    JSONObject json = new JSONObject(response.body());
-
-    String type = json.getString("type");
-    if ("HoldUnavailable".equals(type)) {
-      return new FreeHoldResponse.HoldUnavailable();
-    } else {
-      Hold hold = holdFromJson(json.getJSONObject("hold"));
-      return new FreeHoldResponse.HoldAcquired(hold);
-    }
+    return send(request, NOT_IDEMPOTENT).thenApply(streamed(Operator::readFreeHoldResponse));
   }
 
   public void releaseHold(String holdId) throws IOException, InterruptedException {
+    await(releaseHoldAsync(holdId));
+  }
+
+  public CompletableFuture<String> releaseHoldAsync(String holdId) {
+    this.holdCache.invalidate(holdId);
+
     HttpRequest request =
         requestBuilder().uri(URI.create(automationEndpoint("holds/" + holdId))).DELETE().build();
 
-    httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    return send(request, IDEMPOTENT).thenApply(Operator::readString);
   }
 
   public static class PathfindingResponse {
@@ -247,34 +1206,33 @@ public class Operator {
 
   public PathfindingResponse findPath(Agent agent, Location startLoc, Location endLoc)
       throws IOException, InterruptedException {
+    return await(findPathAsync(agent, startLoc, endLoc));
+  }
+
+  public CompletableFuture<PathfindingResponse> findPathAsync(
+      Agent agent, Location startLoc, Location endLoc) {
     JSONObject body = new JSONObject();
     body.put("start_loc", locationToJson(startLoc));
     body.put("end_loc", locationToJson(endLoc));
 
     HttpRequest request =
-        agentRequestBuilder(agent)
-            .uri(URI.create(agentEndpoint("pathfinding")))
-            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+        withJsonBody(
+                agentRequestBuilder(agent)
+                    .uri(URI.create(agentEndpoint("pathfinding")))
+                    .timeout(PATHFINDING_REQUEST_TIMEOUT),
+                body)
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    JSONObject json = new JSONObject(response.body());
-
-    String type = json.getString("type");
-    if ("Error".equals(type)) {
-      return new PathfindingResponse.Error();
-    } else {
-      JSONArray pathArray = json.getJSONArray("path");
-      List<PfResultNode> path = new java.util.ArrayList<>();
-      for (int i = 0; i < pathArray.length(); i++) {
-        path.add(pfResultNodeFromJson(pathArray.getJSONObject(i)));
-      }
-      return new PathfindingResponse.PathFound(path);
-    }
+    return send(request, IDEMPOTENT).thenApply(streamed(Operator::readPathfindingResponse));
   }
 
   public String sendSignScanData(Agent agent, List<ScanRegion> scanRegions)
       throws IOException, InterruptedException {
+    return await(sendSignScanDataAsync(agent, scanRegions));
+  }
+
+  public CompletableFuture<String> sendSignScanDataAsync(
+      Agent agent, List<ScanRegion> scanRegions) {
     JSONObject body = new JSONObject();
     JSONArray regionsArray = new JSONArray();
     for (ScanRegion region : scanRegions) {
@@ -283,36 +1241,115 @@ public class Operator {
     body.put("scan_regions", regionsArray);
 
     HttpRequest request =
-        agentRequestBuilder(agent)
-            .uri(URI.create(agentEndpoint("sign_scan_data")))
-            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+        withJsonBody(
+                agentRequestBuilder(agent)
+                    .uri(URI.create(agentEndpoint("sign_scan_data")))
+                    .timeout(UPLOAD_REQUEST_TIMEOUT),
+                body)
             .build();
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    return response.body();
+    return agentCall("sign_scan_data", body, request, UPLOAD_REQUEST_TIMEOUT, IDEMPOTENT)
+        .thenApply(Operator::readString);
   }
 
   public CompiledSignConfig getSignConfig() throws IOException, InterruptedException {
-    HttpRequest request =
-        requestBuilder().uri(URI.create(automationEndpoint("sign_config"))).GET().build();
+    return await(getSignConfigAsync());
+  }
 
-    HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-    JSONObject json = new JSONObject(response.body());
-    return compiledSignConfigFromJson(json);
+  /**
+   * Fetches the sign config, sending the ETag of the last one received so an unchanged config comes
+   * back as a 304 and the already parsed copy is reused.
+   */
+  public CompletableFuture<CompiledSignConfig> getSignConfigAsync() {
+    VersionedSignConfig cached = this.signConfig;
+
+    HttpRequest.Builder builder =
+        requestBuilder().uri(URI.create(automationEndpoint("sign_config"))).GET();
+    if (cached != null) {
+      builder.header("If-None-Match", cached.etag());
+    }
+    HttpRequest request = builder.build();
+
+    return resilient(
+            IDEMPOTENT,
+            () ->
+                this.limiter.submit(
+                    () ->
+                        httpClient
+                            .sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                            .thenApply(Operator::checkAvailable)))
+        .thenApply(
+            response -> {
+              if (response.statusCode() == 304 && cached != null) {
+                readString(decode(response));
+                return cached.config();
+              }
+
+              CompiledSignConfig config = compiledSignConfigFromJson(readJson(decode(response)));
+              response
+                  .headers()
+                  .firstValue("ETag")
+                  .ifPresent(etag -> this.signConfig = new VersionedSignConfig(etag, config));
+              return config;
+            });
+  }
+
+  // Ids of every hold an operation uses
+  public static List<String> holdIdsOf(OperationKind kind) {
+    List<String> holdIds = new ArrayList<>();
+
+    if (kind instanceof MoveItemsOperationKind moveItems) {
+      holdIds.addAll(Arrays.asList(moveItems.getSourceHolds()));
+      holdIds.addAll(Arrays.asList(moveItems.getDestinationHolds()));
+    } else if (kind instanceof DropItemsOperationKind dropItems) {
+      holdIds.addAll(Arrays.asList(dropItems.getSourceHolds()));
+    } else if (kind instanceof ImportInventoryOperationKind importInventory) {
+      holdIds.addAll(Arrays.asList(importInventory.getDestinationHolds()));
+    } else if (kind instanceof LoadShulkerOperationKind loadShulker) {
+      holdIds.add(loadShulker.getShulkerHold());
+      holdIds.addAll(Arrays.asList(loadShulker.getSourceHolds()));
+    } else if (kind instanceof UnloadShulkerOperationKind unloadShulker) {
+      holdIds.add(unloadShulker.getShulkerHold());
+      holdIds.addAll(Arrays.asList(unloadShulker.getDestinationHolds()));
+    }
+
+    holdIds.removeIf(holdId -> holdId == null);
+    return holdIds;
   }
 
   private JSONObject locationToJson(Location location) {
     JSONObject json = new JSONObject();
-    json.put("vec3", vec3ToJson(location.getVec3()));
-    json.put("dim", location.getDim());
+    json.put("vec3", vec3ToJson(location.vec3()));
+    json.put("dim", location.dim().name());
     return json;
   }
 
   private JSONObject vec3ToJson(Vec3 vec3) {
     JSONObject json = new JSONObject();
-    json.put("x", vec3.getX());
-    json.put("y", vec3.getY());
-    json.put("z", vec3.getZ());
+    json.put("x", vec3.x());
+    json.put("y", vec3.y());
+    json.put("z", vec3.z());
+    return json;
+  }
+
+  private JSONObject capabilitiesToJson(AgentCapabilities capabilities) {
+    JSONObject json = new JSONObject();
+    json.put("free_slots", capabilities.getFreeSlots());
+    json.put("carried_items", itemsToJsonArray(capabilities.getCarriedItems()));
+    json.put("operations_per_minute", capabilities.getOperationsPerMinute());
+    json.put("accepts_carry_over", capabilities.getAcceptsCarryOver());
+
+    LoadedChunks loadedChunks = capabilities.getLoadedChunks();
+    if (loadedChunks != null) {
+      JSONObject chunksJson = new JSONObject();
+      chunksJson.put("dim", loadedChunks.dim().name());
+      chunksJson.put("min_x", loadedChunks.minX());
+      chunksJson.put("max_x", loadedChunks.maxX());
+      chunksJson.put("min_z", loadedChunks.minZ());
+      chunksJson.put("max_z", loadedChunks.maxZ());
+      json.put("loaded_chunks", chunksJson);
+    }
+
     return json;
   }
 
@@ -332,123 +1369,15 @@ public class Operator {
     return array;
   }
 
-  private Operation operationFromJson(JSONObject json) {
-    String id = json.getString("id");
-    String priority = json.getString("priority");
-    String status = json.getString("status");
-    OperationKind kind = operationKindFromJson(json.getJSONObject("kind"));
-    return new Operation(id, priority, status, kind);
-  }
-
-  private OperationKind operationKindFromJson(JSONObject json) {
-    String type = json.getString("type");
-    switch (type) {
-      case "ScanInventory":
-        return new ScanInventoryOperationKind(
-            locationFromJson(json.getJSONObject("location")),
-            vec3FromJson(json.getJSONObject("open_from")));
-      case "ScanSigns":
-        Location location = locationFromJson(json.getJSONObject("location"));
-        Vec3 takePortal =
-            json.has("take_portal") && !json.isNull("take_portal")
-                ? vec3FromJson(json.getJSONObject("take_portal"))
-                : null;
-        return new ScanSignsOperationKind(location, takePortal);
-      case "MoveItems":
-        JSONArray sourceHoldsArray = json.getJSONArray("source_holds");
-        String[] sourceHolds = new String[sourceHoldsArray.length()];
-        for (int i = 0; i < sourceHoldsArray.length(); i++) {
-          sourceHolds[i] = sourceHoldsArray.getString(i);
-        }
-        JSONArray destinationHoldsArray = json.getJSONArray("destination_holds");
-        String[] destinationHolds = new String[destinationHoldsArray.length()];
-        for (int i = 0; i < destinationHoldsArray.length(); i++) {
-          destinationHolds[i] = destinationHoldsArray.getString(i);
-        }
-        JSONArray countsArray = json.getJSONArray("counts");
-        int[] counts = new int[countsArray.length()];
-        for (int i = 0; i < countsArray.length(); i++) {
-          counts[i] = countsArray.getInt(i);
-        }
-        return new MoveItemsOperationKind(sourceHolds, destinationHolds, counts);
-      case "DropItems":
-        Location dropFrom = locationFromJson(json.getJSONObject("drop_from"));
-        Vec3 aimTowards = vec3FromJson(json.getJSONObject("aim_towards"));
-        JSONArray dropSourceHoldsArray = json.getJSONArray("source_holds");
-        String[] dropSourceHolds = new String[dropSourceHoldsArray.length()];
-        for (int i = 0; i < dropSourceHoldsArray.length(); i++) {
-          dropSourceHolds[i] = dropSourceHoldsArray.getString(i);
-        }
-        return new DropItemsOperationKind(dropFrom, aimTowards, dropSourceHolds);
-      case "ImportInventory":
-        Vec3 chestLocation = vec3FromJson(json.getJSONObject("chest_location"));
-        Location nodeLocation = locationFromJson(json.getJSONObject("node_location"));
-        JSONArray importDestinationHoldsArray = json.getJSONArray("destination_holds");
-        String[] importDestinationHolds = new String[importDestinationHoldsArray.length()];
-        for (int i = 0; i < importDestinationHoldsArray.length(); i++) {
-          importDestinationHolds[i] = importDestinationHoldsArray.getString(i);
-        }
-        return new ImportInventoryOperationKind(
-            chestLocation, nodeLocation, importDestinationHolds);
-      case "LoadShulker":
-        Location loadShulkerStationLocation =
-            locationFromJson(json.getJSONObject("shulker_station_location"));
-        String loadShulkerHold = json.getString("shulker_hold");
-        JSONArray loadSourceHoldsArray = json.getJSONArray("source_holds");
-        String[] loadSourceHolds = new String[loadSourceHoldsArray.length()];
-        for (int i = 0; i < loadSourceHoldsArray.length(); i++) {
-          if (loadSourceHoldsArray.isNull(i)) {
-            loadSourceHolds[i] = null;
-          } else {
-            loadSourceHolds[i] = loadSourceHoldsArray.getString(i);
-          }
-        }
-        return new LoadShulkerOperationKind(
-            loadShulkerStationLocation, loadShulkerHold, loadSourceHolds);
-      case "UnloadShulker":
-        Location unloadShulkerStationLocation =
-            locationFromJson(json.getJSONObject("shulker_station_location"));
-        String unloadShulkerHold = json.getString("shulker_hold");
-        JSONArray unloadDestinationHoldsArray = json.getJSONArray("destination_holds");
-        String[] unloadDestinationHolds = new String[unloadDestinationHoldsArray.length()];
-        for (int i = 0; i < unloadDestinationHoldsArray.length(); i++) {
-          unloadDestinationHolds[i] = unloadDestinationHoldsArray.getString(i);
-        }
-        return new UnloadShulkerOperationKind(
-            unloadShulkerStationLocation, unloadShulkerHold, unloadDestinationHolds);
-      default:
-        throw new IllegalArgumentException("Unknown operation type: " + type);
-    }
-  }
-
-  private Hold holdFromJson(JSONObject json) {
-    return new Hold(
-        json.getString("id"),
-        locationFromJson(json.getJSONObject("location")),
-        json.getInt("slot"),
-        json.getString("valid_until"),
-        vec3FromJson(json.getJSONObject("open_from")));
-  }
-
   private Location locationFromJson(JSONObject json) {
-    return new Location(vec3FromJson(json.getJSONObject("vec3")), json.getString("dim"));
+    return new Location(
+        vec3FromJson(json.getJSONObject("vec3")), Dimension.valueOf(json.getString("dim")));
   }
 
   private Vec3 vec3FromJson(JSONObject json) {
     return new Vec3(json.getInt("x"), json.getInt("y"), json.getInt("z"));
   }
 
-  private PfResultNode pfResultNodeFromJson(JSONObject json) {
-    if (json.has("Vec")) {
-      return new PfResultNode.Vec(vec3FromJson(json.getJSONObject("Vec")));
-    } else if (json.has("Portal")) {
-      JSONObject portal = json.getJSONObject("Portal");
-      return new PfResultNode.Portal(
-          vec3FromJson(portal.getJSONObject("vec")), portal.getString("destination_dim"));
-    }
-    throw new IllegalArgumentException("Unknown PfResultNode type");
-  }
-
   private JSONObject scanRegionToJson(ScanRegion region) {
     JSONObject json = new JSONObject();
 
@@ -466,19 +1395,32 @@ public class Operator {
     boundsArray.put(vec2ToJson(region.getBounds()[1]));
     json.put("bounds", boundsArray);
 
-    json.put("dimension", region.getDimension());
+    json.put("dimension", region.getDimension().name());
     return json;
   }
 
   private JSONObject vec2ToJson(Vec2 vec2) {
     JSONObject json = new JSONObject();
-    json.put("x", vec2.getX());
-    json.put("z", vec2.getZ());
+    json.put("x", vec2.x());
+    json.put("z", vec2.z());
     return json;
   }
 
   private CompiledSignConfig compiledSignConfigFromJson(JSONObject json) {
-    return new CompiledSignConfig(json);
+    // Index the home node once here rather than on every trip home
+    Location homeLocation = null;
+    JSONObject nodes = json.optJSONObject("nodes");
+    if (nodes != null) {
+      for (String nodeName : new TreeSet<>(nodes.keySet())) {
+        JSONObject node = nodes.getJSONObject(nodeName);
+        if (node.optBoolean("home", false)) {
+          homeLocation = locationFromJson(node.getJSONObject("location"));
+          break;
+        }
+      }
+    }
+
+    return new CompiledSignConfig(json, homeLocation);
   }
 
   public static class Agent {
@@ -499,60 +1441,62 @@ public class Operator {
     }
   }
 
-  public static class Vec3 {
-    private final int x, y, z;
+  /**
+   * A block position packed into a single long: 26 bits each of x and z and 12 bits of y, the same
+   * layout the game uses for block positions.
+   */
+  public record Vec3(long packed) {
+    private static final int XZ_BITS = 26;
+    private static final int Y_BITS = 12;
 
     public Vec3(int x, int y, int z) {
-      this.x = x;
-      this.y = y;
-      this.z = z;
+      this(pack(x, y, z));
     }
 
-    public int getX() {
-      return x;
-    }
+    private static long pack(int x, int y, int z) {
+      if (x >> (XZ_BITS - 1) != x >> 31
+          || z >> (XZ_BITS - 1) != z >> 31
+          || y >> (Y_BITS - 1) != y >> 31) {
+        throw new IllegalArgumentException(
+            "position out of range: (" + x + ", " + y + ", " + z + ")");
+      }
 
-    public int getY() {
-      return y;
+      return ((long) x & ((1L << XZ_BITS) - 1)) << (XZ_BITS + Y_BITS)
+          | ((long) z & ((1L << XZ_BITS) - 1)) << Y_BITS
+          | ((long) y & ((1L << Y_BITS) - 1));
     }
 
-    public int getZ() {
-      return z;
+    public int x() {
+      return (int) (packed >> (XZ_BITS + Y_BITS));
     }
-  }
-
-  public static class Vec2 {
-    private final double x, z;
 
-    public Vec2(double x, double z) {
-      this.x = x;
-      this.z = z;
+    public int y() {
+      return (int) (packed << (64 - Y_BITS) >> (64 - Y_BITS));
     }
 
-    public double getX() {
-      return x;
+    public int z() {
+      return (int) (packed << (64 - XZ_BITS - Y_BITS) >> (64 - XZ_BITS));
     }
 
-    public double getZ() {
-      return z;
+    @Override
+    public String toString() {
+      return "(" + x() + ", " + y() + ", " + z() + ")";
     }
   }
 
-  public static class Location {
-    private final Vec3 vec3;
-    private final String dim;
-
-    public Location(Vec3 vec3, String dim) {
-      this.vec3 = vec3;
-      this.dim = dim;
-    }
+  public record Vec2(double x, double z) {}
 
-    public Vec3 getVec3() {
-      return vec3;
-    }
+  // Named as the operator serializes them, so name() and valueOf() are the wire format
+  public enum Dimension {
+    Overworld,
+    TheNether,
+    TheEnd
+  }
 
-    public String getDim() {
-      return dim;
+  public record Location(Vec3 vec3, Dimension dim) {
+    @Override
+    public String toString() {
+      return dim + vec3.toString();
     }
   }
 
@@ -747,42 +1691,55 @@ public class Operator {
     }
   }
 
-  public static class Hold {
-    private final String id;
-    private final Location location;
-    private final int slot;
-    private final String validUntil;
-    private final Vec3 openFrom;
+  public record Hold(String id, Location location, int slot, String validUntil, Vec3 openFrom) {}
 
-    public Hold(String id, Location location, int slot, String validUntil, Vec3 openFrom) {
-      this.id = id;
-      this.location = location;
-      this.slot = slot;
-      this.validUntil = validUntil;
-      this.openFrom = openFrom;
+  // What the agent is carrying and where it is, sent with polls so work can be picked to suit it
+  public static class AgentCapabilities {
+    private final int freeSlots;
+    private final List<Item> carriedItems;
+    private final LoadedChunks loadedChunks;
+    private final double operationsPerMinute;
+    private final boolean acceptsCarryOver;
+
+    public AgentCapabilities(
+        int freeSlots,
+        List<Item> carriedItems,
+        LoadedChunks loadedChunks,
+        double operationsPerMinute,
+        boolean acceptsCarryOver) {
+      this.freeSlots = freeSlots;
+      this.carriedItems = carriedItems;
+      this.loadedChunks = loadedChunks;
+      this.operationsPerMinute = operationsPerMinute;
+      this.acceptsCarryOver = acceptsCarryOver;
     }
 
-    public String getId() {
-      return id;
+    public int getFreeSlots() {
+      return freeSlots;
     }
 
-    public Location getLocation() {
-      return location;
+    // Indexed by player inventory slot, null where the slot is empty
+    public List<Item> getCarriedItems() {
+      return carriedItems;
     }
 
-    public int getSlot() {
-      return slot;
+    public LoadedChunks getLoadedChunks() {
+      return loadedChunks;
     }
 
-    public String getValidUntil() {
-      return validUntil;
+    public double getOperationsPerMinute() {
+      return operationsPerMinute;
     }
 
-    public Vec3 getOpenFrom() {
-      return openFrom;
+    // Whether the operator may hand out work that uses the carried items instead of storing them
+    public boolean getAcceptsCarryOver() {
+      return acceptsCarryOver;
     }
   }
 
+  // Bounding box of the agent's loaded chunks, in chunk coordinates
+  public record LoadedChunks(Dimension dim, int minX, int maxX, int minZ, int maxZ) {}
+
   public static class Item {
     private final int itemId;
     private final int count;
@@ -822,9 +1779,9 @@ public class Operator {
 
     public static class Portal extends PfResultNode {
       private final Vec3 vec;
-      private final String destinationDim;
+      private final Dimension destinationDim;
 
-      public Portal(Vec3 vec, String destinationDim) {
+      public Portal(Vec3 vec, Dimension destinationDim) {
         this.vec = vec;
         this.destinationDim = destinationDim;
       }
@@ -833,7 +1790,7 @@ public class Operator {
         return vec;
       }
 
-      public String getDestinationDim() {
+      public Dimension getDestinationDim() {
         return destinationDim;
       }
     }
@@ -860,9 +1817,9 @@ public class Operator {
   public static class ScanRegion {
     private final List<Sign> signs;
     private final Vec2[] bounds;
-    private final String dimension;
+    private final Dimension dimension;
 
-    public ScanRegion(List<Sign> signs, Vec2[] bounds, String dimension) {
+    public ScanRegion(List<Sign> signs, Vec2[] bounds, Dimension dimension) {
       this.signs = signs;
       this.bounds = bounds;
       this.dimension = dimension;
@@ -876,20 +1833,27 @@ public class Operator {
       return bounds;
     }
 
-    public String getDimension() {
+    public Dimension getDimension() {
       return dimension;
     }
   }
 
   public static class CompiledSignConfig {
     private final JSONObject data;
+    private final Location homeLocation;
 
-    public CompiledSignConfig(JSONObject data) {
+    public CompiledSignConfig(JSONObject data, Location homeLocation) {
       this.data = data;
+      this.homeLocation = homeLocation;
     }
 
     public JSONObject getData() {
       return data;
     }
+
+    // Location of the first home node by name, or null if there is none
+    public Location getHomeLocation() {
+      return homeLocation;
+    }
   }
 }
@@ -0,0 +1,153 @@
+package me.mauldin.super_sorting_system;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * A persistent WebSocket session with the operator. Requests are sent as {@code {id, op, body}}
+ * frames and matched to their {@code {id, status, body}} responses, so several requests (including
+ * a long poll) can be in flight over the one connection.
+ */
+public class OperatorChannel implements WebSocket.Listener {
+  private final AtomicLong nextRequestId = new AtomicLong(1);
+  private final ConcurrentHashMap<Long, CompletableFuture<Response>> pendingRequests =
+      new ConcurrentHashMap<>();
+  private final StringBuilder partialMessage = new StringBuilder();
+  private final Object sendLock = new Object();
+  private volatile WebSocket webSocket;
+  private volatile boolean open = false;
+
+  public record Response(int status, String body) {}
+
+  private OperatorChannel() {}
+
+  /** Connects without blocking the caller, failing after 15 seconds. */
+  public static CompletableFuture<OperatorChannel> connectAsync(
+      HttpClient httpClient, URI uri, String apiKey, String agentId) {
+    OperatorChannel channel = new OperatorChannel();
+
+    return httpClient
+        .newWebSocketBuilder()
+        .header("X-Api-Key", apiKey)
+        .header("X-Agent-Id", agentId)
+        .connectTimeout(Duration.ofSeconds(10))
+        .buildAsync(uri, channel)
+        .orTimeout(15, TimeUnit.SECONDS)
+        .thenApply(
+            webSocket -> {
+              channel.webSocket = webSocket;
+              channel.open = true;
+              return channel;
+            });
+  }
+
+  public boolean isOpen() {
+    return this.open;
+  }
+
+  public CompletableFuture<Response> request(String op, JSONObject body, Duration timeout) {
+    long id = this.nextRequestId.getAndIncrement();
+    CompletableFuture<Response> future = new CompletableFuture<>();
+
+    if (!this.open) {
+      future.completeExceptionally(new IOException("channel: not open"));
+      return future;
+    }
+
+    JSONObject frame = new JSONObject();
+    frame.put("id", id);
+    frame.put("op", op);
+    frame.put("body", body == null ? new JSONObject() : body);
+
+    this.pendingRequests.put(id, future);
+
+    // WebSocket only allows one outstanding send at a time
+    synchronized (this.sendLock) {
+      try {
+        this.webSocket.sendText(frame.toString(), true).join();
+      } catch (Exception e) {
+        this.pendingRequests.remove(id);
+        future.completeExceptionally(new IOException("channel: send failed", e));
+        return future;
+      }
+    }
+
+    return future
+        .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .whenComplete((response, error) -> this.pendingRequests.remove(id));
+  }
+
+  public void close() {
+    WebSocket webSocket = this.webSocket;
+    if (this.open && webSocket != null) {
+      webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "agent closing");
+    }
+    this.markClosed(new IOException("channel: closed by agent"));
+  }
+
+  @Override
+  public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+    this.partialMessage.append(data);
+
+    if (last) {
+      String message = this.partialMessage.toString();
+      this.partialMessage.setLength(0);
+      this.handleMessage(message);
+    }
+
+    webSocket.request(1);
+    return null;
+  }
+
+  @Override
+  public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+    System.out.println("channel: closed by operator (" + statusCode + " " + reason + ")");
+    this.markClosed(new IOException("channel: closed by operator"));
+    return null;
+  }
+
+  @Override
+  public void onError(WebSocket webSocket, Throwable error) {
+    System.out.println("channel: error " + error);
+    this.markClosed(new IOException("channel: errored", error));
+  }
+
+  private void handleMessage(String message) {
+    JSONObject json;
+    try {
+      json = new JSONObject(message);
+    } catch (Exception e) {
+      System.out.println("channel: received malformed frame");
+      return;
+    }
+
+    CompletableFuture<Response> future = this.pendingRequests.remove(json.optLong("id", -1));
+    if (future == null) {
+      return;
+    }
+
+    Object body = json.opt("body");
+    String bodyString = body instanceof String bodyText ? bodyText : String.valueOf(body);
+    future.complete(new Response(json.optInt("status", 500), bodyString));
+  }
+
+  private void markClosed(IOException cause) {
+    this.open = false;
+
+    for (Long id : this.pendingRequests.keySet()) {
+      CompletableFuture<Response> future = this.pendingRequests.remove(id);
+      if (future != null) {
+        future.completeExceptionally(cause);
+      }
+    }
+  }
+}
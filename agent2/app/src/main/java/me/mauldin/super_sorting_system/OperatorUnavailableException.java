@@ -0,0 +1,17 @@
+package me.mauldin.super_sorting_system;
+
+import java.io.IOException;
+
+/** Thrown without contacting the operator while the client's circuit breaker is open. */
+public class OperatorUnavailableException extends IOException {
+  private final long retryAfterMs;
+
+  public OperatorUnavailableException(long retryAfterMs) {
+    super("operator: unavailable, retry in " + retryAfterMs + "ms");
+    this.retryAfterMs = retryAfterMs;
+  }
+
+  public long getRetryAfterMs() {
+    return retryAfterMs;
+  }
+}
@@ -0,0 +1,78 @@
+package me.mauldin.super_sorting_system;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONObject;
+
+/**
+ * How request bodies are encoded on the way to the operator. Responses are decoded from whatever
+ * Content-Encoding the operator chose, so any codec can read any response.
+ */
+public interface PayloadCodec {
+  // Content-Encoding of encoded bodies, or null when they are sent as is
+  String getContentEncoding();
+
+  HttpRequest.BodyPublisher encode(JSONObject body);
+
+  default Reader decode(HttpResponse<InputStream> response) throws IOException {
+    InputStream body = response.body();
+    String encoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+
+    if (encoding.equalsIgnoreCase("gzip")) {
+      body = new GZIPInputStream(body);
+    } else if (!encoding.equalsIgnoreCase("identity")) {
+      body.close();
+      throw new IOException("codec: unsupported response encoding " + encoding);
+    }
+
+    return new InputStreamReader(body, StandardCharsets.UTF_8);
+  }
+
+  static PayloadCodec forName(String name) {
+    return switch (name) {
+      case "json" -> new Json();
+      case "gzip" -> new GzipJson();
+      default -> throw new IllegalArgumentException("codec: unknown payload codec " + name);
+    };
+  }
+
+  class Json implements PayloadCodec {
+    public String getContentEncoding() {
+      return null;
+    }
+
+    public HttpRequest.BodyPublisher encode(JSONObject body) {
+      return HttpRequest.BodyPublishers.ofString(body.toString());
+    }
+  }
+
+  class GzipJson implements PayloadCodec {
+    public String getContentEncoding() {
+      return "gzip";
+    }
+
+    public HttpRequest.BodyPublisher encode(JSONObject body) {
+      // Writes the JSON straight into the compressor without building an intermediate string
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (Writer writer =
+          new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)) {
+        body.write(writer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      return HttpRequest.BodyPublishers.ofByteArray(bytes.toByteArray());
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package me.mauldin.super_sorting_system;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Caps how many operator requests are in flight at once. Requests over the limit are queued and
+ * started as earlier ones finish, without parking the submitting thread.
+ */
+class RequestLimiter {
+  private final Semaphore slots;
+  private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+  RequestLimiter(int maxInFlight) {
+    this.slots = new Semaphore(maxInFlight);
+  }
+
+  <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+
+    this.waiting.add(
+        () -> {
+          CompletableFuture<T> started;
+          try {
+            started = call.get();
+          } catch (Exception e) {
+            started = CompletableFuture.failedFuture(e);
+          }
+
+          started.whenComplete(
+              (value, error) -> {
+                this.slots.release();
+                this.drain();
+
+                if (error != null) {
+                  result.completeExceptionally(error);
+                } else {
+                  result.complete(value);
+                }
+              });
+        });
+    this.drain();
+
+    return result;
+  }
+
+  private void drain() {
+    while (!this.waiting.isEmpty() && this.slots.tryAcquire()) {
+      Runnable next = this.waiting.poll();
+      if (next == null) {
+        // Another drain took it, re-check in case something was queued while we held the slot
+        this.slots.release();
+        continue;
+      }
+      next.run();
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package me.mauldin.super_sorting_system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.geysermc.mcprotocollib.network.ClientSession;
+import org.geysermc.mcprotocollib.network.event.session.DisconnectedEvent;
+import org.geysermc.mcprotocollib.network.event.session.SessionAdapter;
+import org.geysermc.mcprotocollib.network.factory.ClientNetworkSessionFactory;
+import org.geysermc.mcprotocollib.protocol.MinecraftProtocol;
+
+/**
+ * Boots the protocol and network stack against a stand-in server on localhost. The stand-in reads
+ * the client's handshake and login start, then refuses the login with a JSON text component, which
+ * the client has to decode through the login codec and the component serializer. Run with
+ * --smoke-test, mainly to check a native image was built with everything those paths need.
+ */
+public class SmokeTest {
+  private static final int TIMEOUT_MS = 10000;
+  // Serverbound handshake intention and clientbound login disconnect share id 0 in their states
+  private static final int INTENTION_PACKET_ID = 0x00;
+  private static final int LOGIN_DISCONNECT_PACKET_ID = 0x00;
+  private static final String REASON = "super sorting system smoke test";
+
+  public static boolean run() throws Exception {
+    long startTime = System.nanoTime();
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+
+    try (ServerSocket standIn = new ServerSocket(0, 1, loopback)) {
+      standIn.setSoTimeout(TIMEOUT_MS);
+
+      CompletableFuture<Component> disconnectReason = new CompletableFuture<>();
+      ClientSession client =
+          ClientNetworkSessionFactory.factory()
+              .setRemoteSocketAddress(new InetSocketAddress(loopback, standIn.getLocalPort()))
+              .setProtocol(new MinecraftProtocol("smoke_test"))
+              .create();
+      client.addListener(
+          new SessionAdapter() {
+            @Override
+            public void disconnected(DisconnectedEvent event) {
+              disconnectReason.complete(event.getReason());
+            }
+          });
+      client.connect();
+
+      try (Socket socket = standIn.accept()) {
+        socket.setSoTimeout(TIMEOUT_MS);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+
+        int packetId = readPacketId(in);
+        if (packetId != INTENTION_PACKET_ID) {
+          System.out.println("smoke: expected a handshake, got packet " + packetId);
+          return false;
+        }
+        // Login start, its contents don't matter here
+        readPacketId(in);
+
+        writeLoginDisconnect(socket, "{\"text\":\"" + REASON + "\"}");
+
+        Component reason;
+        try {
+          reason = disconnectReason.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          System.out.println("smoke: client never reported the disconnect");
+          return false;
+        }
+
+        if (!(reason instanceof TextComponent text) || !text.content().equals(REASON)) {
+          System.out.println("smoke: client didn't decode the disconnect reason, got " + reason);
+          return false;
+        }
+
+        System.out.println(
+            "smoke: login handshake and disconnect decoded after "
+                + (System.nanoTime() - startTime) / 1000000
+                + "ms");
+        return true;
+      } finally {
+        client.disconnect("Smoke test complete");
+      }
+    }
+  }
+
+  // Reads one uncompressed packet, returning its id
+  private static int readPacketId(DataInputStream in) throws IOException {
+    int length = readVarInt(in);
+    byte[] packet = new byte[length];
+    in.readFully(packet);
+    return readVarInt(new DataInputStream(new ByteArrayInputStream(packet)));
+  }
+
+  private static void writeLoginDisconnect(Socket socket, String reasonJson) throws IOException {
+    byte[] reasonBytes = reasonJson.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream packet = new ByteArrayOutputStream();
+    writeVarInt(packet, LOGIN_DISCONNECT_PACKET_ID);
+    writeVarInt(packet, reasonBytes.length);
+    packet.write(reasonBytes);
+
+    ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    writeVarInt(frame, packet.size());
+    packet.writeTo(frame);
+
+    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+    frame.writeTo(out);
+    out.flush();
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("VarInt too long");
+  }
+
+  private static void writeVarInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+}
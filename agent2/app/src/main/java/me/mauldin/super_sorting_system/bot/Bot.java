@@ -1,15 +1,29 @@
 package me.mauldin.super_sorting_system.bot;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import me.mauldin.super_sorting_system.Config;
 import me.mauldin.super_sorting_system.Operator;
 import me.mauldin.super_sorting_system.Operator.Agent;
+import me.mauldin.super_sorting_system.Operator.AgentCapabilities;
 import me.mauldin.super_sorting_system.Operator.DropItemsOperationKind;
+import me.mauldin.super_sorting_system.Operator.Hold;
 import me.mauldin.super_sorting_system.Operator.ImportInventoryOperationKind;
+import me.mauldin.super_sorting_system.Operator.Item;
 import me.mauldin.super_sorting_system.Operator.LoadShulkerOperationKind;
+import me.mauldin.super_sorting_system.Operator.Location;
 import me.mauldin.super_sorting_system.Operator.MoveItemsOperationKind;
 import me.mauldin.super_sorting_system.Operator.Operation;
 import me.mauldin.super_sorting_system.Operator.OperationKind;
@@ -17,6 +31,9 @@ import me.mauldin.super_sorting_system.Operator.PollOperationResponse;
 import me.mauldin.super_sorting_system.Operator.ScanInventoryOperationKind;
 import me.mauldin.super_sorting_system.Operator.ScanSignsOperationKind;
 import me.mauldin.super_sorting_system.Operator.UnloadShulkerOperationKind;
+import me.mauldin.super_sorting_system.Operator.Vec3;
+import me.mauldin.super_sorting_system.OperatorUnavailableException;
+import me.mauldin.super_sorting_system.bot.operations.BatchedTrip;
 import me.mauldin.super_sorting_system.bot.operations.DropItems;
 import me.mauldin.super_sorting_system.bot.operations.ImportInventory;
 import me.mauldin.super_sorting_system.bot.operations.LoadShulker;
@@ -30,69 +47,235 @@ import net.raphimc.minecraftauth.step.java.session.StepFullJavaSession.FullJavaS
 import org.geysermc.mcprotocollib.auth.GameProfile;
 import org.geysermc.mcprotocollib.auth.SessionService;
 import org.geysermc.mcprotocollib.network.ClientSession;
-import org.geysermc.mcprotocollib.network.Session;
 import org.geysermc.mcprotocollib.network.event.session.ConnectedEvent;
 import org.geysermc.mcprotocollib.network.event.session.DisconnectedEvent;
 import org.geysermc.mcprotocollib.network.event.session.SessionAdapter;
 import org.geysermc.mcprotocollib.network.factory.ClientNetworkSessionFactory;
-import org.geysermc.mcprotocollib.network.packet.Packet;
 import org.geysermc.mcprotocollib.protocol.MinecraftConstants;
 import org.geysermc.mcprotocollib.protocol.MinecraftProtocol;
+import org.geysermc.mcprotocollib.protocol.data.game.item.ItemStack;
 import org.geysermc.mcprotocollib.protocol.packet.configuration.clientbound.ClientboundFinishConfigurationPacket;
 
 public class Bot {
+  private static final long THROUGHPUT_WINDOW_MS = 10 * 60 * 1000;
+  private static final long MAX_RECONNECT_BACKOFF_MS = 60 * 1000;
+  // How long a reconnect attempt may take to get back in game
+  private static final long RECONNECT_TIMEOUT_MS = 30 * 1000;
+
   private boolean isConnected;
   public final Navigation navigation;
   public final SignInfoListener signInfo;
   public final Operator operator;
   public final Agent agent;
   private Thread mainLoopThread;
-  public final ClientSession client;
+  // Replaced when the bot reconnects
+  public volatile ClientSession client;
   public final InventoryTracker inventoryTracker;
-  private final ScheduledExecutorService heartbeatScheduler;
+  public final HoldLeases holdLeases;
+  public final Telemetry telemetry;
+  public final Mailbox mailbox;
+  public final PacketRouter packets;
+  public final ConnectionState connection = new ConnectionState();
+  public final Watchdog watchdog = new Watchdog(this.connection);
+  public final String account;
+  // Set to stop taking work; the loop finishes what it holds, stores its items and disconnects
+  private volatile boolean draining = false;
+  // Periodic tasks on the scheduler shared by every bot in the process, cancelled on shutdown
+  private final List<ScheduledFuture<?>> scheduledTasks = new ArrayList<>();
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private final InetSocketAddress serverAddress;
+  // Null when joining an offline-mode server by account name
+  private FullJavaSession javaSession;
+  private final int reconnectAttempts;
+  private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+  private final long operationPollWaitMs;
+  private final boolean useChannel;
+  private final boolean pipelineOperations;
+  private final int maxBatchedOperations;
+  private final boolean carryOverInventory;
+  private final long operationDeadlineMs;
+  private PollOperationResponse prefetchedPoll;
+  private boolean loggedFirstPoll = false;
+  // When recent operations finished, for the throughput reported with polls
+  private final ArrayDeque<Long> recentCompletions = new ArrayDeque<>();
+  // Inventory uploads are chained so they reach the operator in the order they were scanned
+  private CompletableFuture<?> pendingUploads = CompletableFuture.completedFuture(null);
 
-  public Bot(Config config, Operator operator, Agent agent) throws Exception {
+  public Bot(
+      Config config,
+      Operator operator,
+      Agent agent,
+      String account,
+      FullJavaSession javaSession,
+      ScheduledExecutorService scheduler)
+      throws Exception {
     this.operator = operator;
     this.agent = agent;
+    this.account = account;
+    this.operationPollWaitMs = config.getOperationPollWaitMs();
+    this.useChannel = config.getUseChannel();
+    this.pipelineOperations = config.getPipelineOperations();
+    this.maxBatchedOperations = config.getMaxBatchedOperations();
+    this.carryOverInventory = config.getCarryOverInventory();
+    this.operationDeadlineMs = config.getOperationDeadlineMs();
+    this.reconnectAttempts = config.getReconnectAttempts();
+    this.serverAddress = new InetSocketAddress(config.getMcServerHost(), config.getMcServerPort());
 
-    FullJavaSession javaSession = McAuth.getSession();
-    MCProfile mcProfile = javaSession.getMcProfile();
-    MCToken mcToken = mcProfile.getMcToken();
-
-    SessionService sessionService = new SessionService();
-    MinecraftProtocol protocol =
-        new MinecraftProtocol(
-            new GameProfile(mcProfile.getId(), mcProfile.getName()), mcToken.getAccessToken());
+    if (this.useChannel) {
+      this.operator.openChannel(this.agent);
+    }
 
-    client =
-        ClientNetworkSessionFactory.factory()
-            .setRemoteSocketAddress(
-                new InetSocketAddress(config.getMcServerHost(), config.getMcServerPort()))
-            .setProtocol(protocol)
-            .create();
-    client.setFlag(MinecraftConstants.SESSION_SERVICE_KEY, sessionService);
+    this.javaSession = javaSession;
 
-    this.navigation = new Navigation(client, this.operator, this.agent);
-    this.signInfo = new SignInfoListener(navigation, this.operator, this.agent);
-    this.inventoryTracker = new InventoryTracker(client, navigation, this.operator, this.agent);
+    this.packets = new PacketRouter();
+    this.client = this.createClient();
 
-    client.addListener(new ConnectionListeners());
-    client.addListener(navigation);
-    client.addListener(signInfo);
-    client.addListener(inventoryTracker);
+    this.telemetry = new Telemetry();
+    this.mailbox = new Mailbox("bot-" + account + "-mailbox");
+    this.navigation =
+        new Navigation(
+            client, this.operator, this.agent, this.telemetry, this.mailbox, this.watchdog);
+    this.signInfo =
+        new SignInfoListener(navigation, this.operator, this.agent, this.mailbox, scheduler);
+    this.inventoryTracker =
+        new InventoryTracker(
+            client,
+            navigation,
+            this.operator,
+            this.agent,
+            this.telemetry,
+            this.mailbox,
+            this.watchdog,
+            this.connection);
+    this.holdLeases = new HoldLeases(this.operator, this.agent);
 
-    this.heartbeatScheduler = Executors.newSingleThreadScheduledExecutor();
-    this.heartbeatScheduler.scheduleAtFixedRate(
-        () -> {
-          try {
-            this.operator.heartbeat(this.agent);
-          } catch (Exception e) {
-            System.out.println("Heartbeat failed: " + e);
+    ConnectionListeners.register(this.packets);
+    this.navigation.register(this.packets);
+    this.signInfo.register(this.packets);
+    this.inventoryTracker.register(this.packets);
+    this.packets.on(
+        ClientboundFinishConfigurationPacket.class,
+        (session, packet) -> {
+          this.connection.established();
+          // Reconnects carry on with the loop that is already running
+          if (mainLoopThread.getState() == Thread.State.NEW) {
+            mainLoopThread.start();
           }
-        },
-        15,
-        15,
-        TimeUnit.SECONDS);
+        });
+
+    this.scheduledTasks.add(
+        scheduler.scheduleAtFixedRate(
+            () -> {
+              try {
+                if (this.useChannel) {
+                  // Reopens the channel if it dropped since the last heartbeat, without waiting
+                  // so the scheduler shared by every bot keeps ticking while the operator is down
+                  this.operator.openChannelAsync(this.agent);
+                }
+
+                this.operator
+                    .heartbeatAsync(this.agent)
+                    .exceptionally(
+                        error -> {
+                          System.out.println("Heartbeat failed: " + error);
+                          return null;
+                        });
+              } catch (Exception e) {
+                System.out.println("Heartbeat failed: " + e);
+              }
+            },
+            15,
+            15,
+            TimeUnit.SECONDS));
+    this.scheduledTasks.add(
+        scheduler.scheduleAtFixedRate(
+            () -> {
+              try {
+                if (this.telemetry.isEmpty()) {
+                  return;
+                }
+
+                this.operator
+                    .sendTelemetryAsync(this.agent, this.telemetry.drain())
+                    .exceptionally(
+                        error -> {
+                          System.out.println("Telemetry upload failed: " + error);
+                          return null;
+                        });
+              } catch (Exception e) {
+                System.out.println("Telemetry upload failed: " + e);
+              }
+            },
+            60,
+            60,
+            TimeUnit.SECONDS));
+    this.scheduledTasks.add(
+        scheduler.scheduleAtFixedRate(this.watchdog::check, 1, 1, TimeUnit.SECONDS));
+    this.scheduledTasks.add(
+        scheduler.scheduleAtFixedRate(
+            () -> System.out.println("packets: received " + this.packets.getPacketCounts()),
+            5,
+            5,
+            TimeUnit.MINUTES));
+    this.scheduledTasks.add(
+        scheduler.scheduleAtFixedRate(
+            () -> System.out.println("operator: " + this.operator.getClientMetrics()),
+            5,
+            5,
+            TimeUnit.MINUTES));
+    this.scheduledTasks.add(
+        scheduler.scheduleAtFixedRate(
+            () -> {
+              try {
+                this.holdLeases.renewExpiring();
+              } catch (Exception e) {
+                System.out.println("Hold renewal failed: " + e);
+              }
+            },
+            15,
+            15,
+            TimeUnit.SECONDS));
+
+    // Main loops mostly wait on the operator and the server, so they run on virtual threads
+    mainLoopThread =
+        Thread.ofVirtual()
+            .name("bot-" + account)
+            .unstarted(
+                () -> {
+                  try {
+                    mainLoop();
+                  } catch (Exception e) {
+                    System.err.println("Main loop error: " + e.getMessage());
+                    e.printStackTrace();
+                  }
+                });
+
+    this.isConnected = true;
+    this.client.connect();
+  }
+
+  private ClientSession createClient() throws Exception {
+    MinecraftProtocol protocol;
+    if (this.javaSession == null) {
+      protocol = new MinecraftProtocol(this.account);
+    } else {
+      this.javaSession = McAuth.refreshIfExpired(this.javaSession);
+      MCProfile mcProfile = this.javaSession.getMcProfile();
+      MCToken mcToken = mcProfile.getMcToken();
+      protocol =
+          new MinecraftProtocol(
+              new GameProfile(mcProfile.getId(), mcProfile.getName()), mcToken.getAccessToken());
+    }
+
+    ClientSession client =
+        ClientNetworkSessionFactory.factory()
+            .setRemoteSocketAddress(this.serverAddress)
+            .setProtocol(protocol)
+            .create();
+    if (this.javaSession != null) {
+      client.setFlag(MinecraftConstants.SESSION_SERVICE_KEY, new SessionService());
+    }
+    client.addListener(this.packets);
     client.addListener(
         new SessionAdapter() {
           @Override
@@ -104,37 +287,126 @@ public class Bot {
           public void disconnected(DisconnectedEvent event) {
             System.out.println(
                 "Disconnected: " + event.getReason() + " (" + event.getCause() + ")");
-            isConnected = false;
-            shutdown();
+            connectionLost(client);
           }
+        });
 
-          @Override
-          public void packetReceived(Session session, Packet packet) {
-            if (packet instanceof ClientboundFinishConfigurationPacket) {
-              mainLoopThread.start();
-            }
+    return client;
+  }
+
+  private void connectionLost(ClientSession lost) {
+    // A session already replaced by a reconnect attempt
+    if (lost != this.client) {
+      return;
+    }
+
+    this.connection.lost();
+    this.inventoryTracker.connectionLost();
+    if (!this.isConnected) {
+      // Shutting down
+      return;
+    }
+
+    if (this.reconnecting.compareAndSet(false, true)) {
+      Thread.ofVirtual().name("bot-" + this.account + "-reconnect").start(this::reconnect);
+    }
+  }
+
+  /**
+   * Reconnects with backoff, keeping the agent registration, holds and the operation in progress.
+   * The operation's waits hold until the bot is back in game, then it carries on. Shuts the bot
+   * down if the server stays unreachable.
+   */
+  private void reconnect() {
+    long backoffMs = 1000;
+    for (int attempt = 1; attempt <= this.reconnectAttempts && this.isConnected; attempt++) {
+      try {
+        Thread.sleep(backoffMs);
+        System.out.println("reconnect: attempt " + attempt + " of " + this.reconnectAttempts);
+        if (this.tryReconnect()) {
+          System.out.println("reconnect: back in game");
+          this.reconnecting.set(false);
+          // Dropped again before the flag was cleared
+          if (!this.connection.isOnline()) {
+            this.connectionLost(this.client);
           }
-        });
+          return;
+        }
+      } catch (InterruptedException e) {
+        this.reconnecting.set(false);
+        return;
+      } catch (Exception e) {
+        System.out.println("reconnect: attempt failed: " + e);
+      }
+      backoffMs = Math.min(backoffMs * 2, MAX_RECONNECT_BACKOFF_MS);
+    }
+
+    this.reconnecting.set(false);
+    if (this.isConnected) {
+      System.out.println("reconnect: giving up after " + this.reconnectAttempts + " attempts");
+      this.shutdown();
+    }
+  }
 
+  private boolean tryReconnect() throws Exception {
+    ClientSession client = this.createClient();
+    this.navigation.reconnected(client);
+    this.inventoryTracker.reconnected(client);
+    this.client = client;
     client.connect();
-    this.isConnected = true;
 
-    mainLoopThread =
-        new Thread(
-            () -> {
-              try {
-                mainLoop();
-              } catch (Exception e) {
-                System.err.println("Main loop error: " + e.getMessage());
-                e.printStackTrace();
-              }
-            });
+    long deadline = System.currentTimeMillis() + RECONNECT_TIMEOUT_MS;
+    while (System.currentTimeMillis() < deadline) {
+      if (this.connection.awaitOnline(500)) {
+        return true;
+      }
+      if (!client.isConnected()) {
+        return false;
+      }
+    }
+
+    client.disconnect("Reconnect timed out");
+    return false;
   }
 
   public boolean getIsConnected() {
     return this.isConnected;
   }
 
+  /**
+   * Stops the bot taking new operations. It finishes any it already holds, deposits what it
+   * carries, then disconnects, leaving nothing for the operator's recovery to clean up.
+   */
+  public void drain() {
+    if (!this.draining) {
+      System.out.println("drain: finishing current work before disconnecting");
+      this.draining = true;
+    }
+  }
+
+  public boolean isDraining() {
+    return this.draining;
+  }
+
+  private void finishDrain() throws InterruptedException {
+    try {
+      if (!InventoryUtil.clearInventory(this)) {
+        System.out.println("drain: unable to store every carried item");
+      }
+    } catch (Exception e) {
+      System.out.println("drain: clearing inventory failed: " + e);
+    }
+
+    this.settlePendingUploads();
+    System.out.println("drain: complete, disconnecting");
+    this.shutdown();
+  }
+
+  /** Blocks until the bot has shut down or timeoutMs passes, returning whether it shut down. */
+  public boolean awaitShutdown(long timeoutMs) throws InterruptedException {
+    return this.stopped.await(timeoutMs, TimeUnit.MILLISECONDS);
+  }
+
   public void shutdown() {
     if (this.isConnected) {
       this.isConnected = false;
@@ -142,8 +414,190 @@ public class Bot {
     }
 
     this.signInfo.shutdown();
-    this.heartbeatScheduler.shutdown();
+    for (ScheduledFuture<?> task : this.scheduledTasks) {
+      task.cancel(false);
+    }
+    this.operator.closeChannel();
     mainLoopThread.interrupt();
+    this.mailbox.shutdown();
+    this.stopped.countDown();
+  }
+
+  /** Blocks until the bot has shut down. */
+  public void awaitShutdown() throws InterruptedException {
+    this.stopped.await();
+  }
+
+  /**
+   * Queues an upload to run after any earlier ones without waiting for it. Uploads are awaited
+   * before an operation is reported complete. Once one fails the rest are skipped, the operation is
+   * aborted anyway.
+   */
+  public synchronized void queueUpload(Supplier<CompletableFuture<?>> upload) {
+    this.pendingUploads = this.pendingUploads.thenCompose(ignored -> upload.get());
+  }
+
+  /**
+   * Waits for the queued uploads, throwing the first failure so the hold or operation relying on
+   * them isn't reported done while the operator has stale contents. The failure is then cleared.
+   */
+  public void awaitPendingUploads() throws Exception {
+    CompletableFuture<?> uploads;
+    synchronized (this) {
+      uploads = this.pendingUploads;
+    }
+
+    try {
+      uploads.get();
+    } catch (ExecutionException e) {
+      synchronized (this) {
+        this.pendingUploads = CompletableFuture.completedFuture(null);
+      }
+
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  // Waits out queued uploads once the work they belong to has already failed or is being put down
+  private void settlePendingUploads() throws InterruptedException {
+    try {
+      this.awaitPendingUploads();
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      System.out.println("Upload failed: " + e);
+    }
+  }
+
+  // Keeps trying through operator outages, the operator won't hand out more work until it lands
+  private void reportOperationComplete(Operation op, String finalStatus)
+      throws InterruptedException {
+    while (this.isConnected) {
+      try {
+        this.operator.operationComplete(this.agent, op, finalStatus);
+        return;
+      } catch (OperatorUnavailableException e) {
+        Thread.sleep(e.getRetryAfterMs());
+      } catch (IOException e) {
+        System.out.println("Failed to report operation " + op.getId() + ": " + e);
+        Thread.sleep(1000);
+      }
+    }
+  }
+
+  /**
+   * Reports op complete and claims the next operation in one request, sent as soon as the final
+   * chest uploads land. The next operation's holds and first path are then fetched in the
+   * background. Returns null if the pipelined request failed and op was reported on its own.
+   */
+  private PollOperationResponse completeAndPollNext(Operation op) throws InterruptedException {
+    CompletableFuture<PollOperationResponse> next;
+    synchronized (this) {
+      next =
+          this.pendingUploads.thenCompose(
+              ignored ->
+                  this.operator.completeAndPollAsync(
+                      this.agent,
+                      op,
+                      "Complete",
+                      this.navigation.getCurrentLocation(),
+                      this.hasClearInventory(),
+                      this.maxBatchedOperations,
+                      this.capabilities()));
+    }
+
+    try {
+      PollOperationResponse response = next.get();
+      if (response instanceof PollOperationResponse.OperationAvailable available) {
+        this.prefetchOperation(available.getOperation());
+      }
+      return response;
+    } catch (ExecutionException e) {
+      System.out.println("Pipelined completion failed, reporting on its own: " + e.getCause());
+      this.reportOperationComplete(op, "Complete");
+      return null;
+    }
+  }
+
+  private void prefetchOperation(Operation op) {
+    OperationKind kind = op.getKind();
+
+    this.operator
+        .getHoldsAsync(Operator.holdIdsOf(kind), this.agent)
+        .thenAccept(
+            holds -> {
+              Location firstStop = firstStop(kind, holds);
+              if (firstStop != null) {
+                this.navigation.prefetchPath(firstStop);
+              }
+            })
+        .exceptionally(
+            error -> {
+              System.out.println("Prefetch failed: " + error);
+              return null;
+            });
+  }
+
+  // Where an operation first navigates to, given its holds in holdIdsOf order
+  private static Location firstStop(OperationKind kind, List<Hold> holds) {
+    if (kind instanceof ScanInventoryOperationKind scanInventoryKind) {
+      return new Location(scanInventoryKind.getOpenFrom(), scanInventoryKind.getLocation().dim());
+    } else if (kind instanceof ImportInventoryOperationKind importInventoryKind) {
+      return importInventoryKind.getNodeLocation();
+    } else if (kind instanceof ScanSignsOperationKind || holds.isEmpty()) {
+      return null;
+    }
+
+    Hold hold = holds.get(0);
+    return new Location(hold.openFrom(), hold.location().dim());
+  }
+
+  private boolean hasClearInventory() {
+    ItemStack[] playerInventory = this.inventoryTracker.getPlayerInventory();
+    if (playerInventory == null) {
+      return true;
+    }
+
+    for (ItemStack stack : playerInventory) {
+      if (stack != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private AgentCapabilities capabilities() {
+    ItemStack[] playerInventory = this.inventoryTracker.getPlayerInventory();
+    List<Item> carriedItems = new ArrayList<>();
+    int freeSlots = 0;
+
+    if (playerInventory == null) {
+      freeSlots = 36;
+    } else {
+      for (ItemStack stack : playerInventory) {
+        if (stack == null) {
+          freeSlots++;
+        }
+        carriedItems.add(InventoryUtil.toItem(stack));
+      }
+    }
+
+    long now = System.currentTimeMillis();
+    while (!this.recentCompletions.isEmpty()
+        && this.recentCompletions.peekFirst() < now - THROUGHPUT_WINDOW_MS) {
+      this.recentCompletions.pollFirst();
+    }
+    double operationsPerMinute = this.recentCompletions.size() / (THROUGHPUT_WINDOW_MS / 60000.0);
+
+    return new AgentCapabilities(
+        freeSlots,
+        carriedItems,
+        this.navigation.getLoadedChunks(),
+        operationsPerMinute,
+        this.carryOverInventory);
   }
 
   private boolean atHome = false;
@@ -155,38 +609,85 @@ public class Bot {
         continue;
       }
 
-      // Attempt to clear inventory before polling for operations
-      boolean inventoryCleared = false;
-      try {
-        inventoryCleared = InventoryUtil.clearInventory(this);
-      } catch (Exception e) {
-        System.err.println("Error clearing inventory: " + e.getMessage());
-        inventoryCleared = false;
+      // An operation claimed by a pipelined completion is still finished before draining
+      if (this.draining && this.prefetchedPoll == null) {
+        this.finishDrain();
+        return;
       }
 
-      PollOperationResponse pollResult =
-          this.operator.pollOperation(
-              this.agent, this.navigation.getCurrentLocation(), inventoryCleared);
+      if (!this.loggedFirstPoll) {
+        this.loggedFirstPoll = true;
+        long sinceLaunchMs =
+            System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        System.out.println(
+            "startup: " + this.account + " polling " + sinceLaunchMs + "ms after launch");
+      }
+
+      // A pipelined completion may already have claimed the next operation
+      PollOperationResponse pollResult = this.prefetchedPoll;
+      this.prefetchedPoll = null;
+      long pollWaitMs = 0;
+
+      if (pollResult == null && this.carryOverInventory && !this.hasClearInventory()) {
+        // Offer what the bot is carrying before storing it away, in case the next job can use it
+        try {
+          pollResult =
+              this.operator.pollOperation(
+                  this.agent,
+                  this.navigation.getCurrentLocation(),
+                  false,
+                  0,
+                  1,
+                  this.capabilities());
+        } catch (IOException e) {
+          System.out.println("Carry-over poll failed: " + e);
+        }
+
+        if (!(pollResult instanceof PollOperationResponse.OperationAvailable)) {
+          pollResult = null;
+        }
+      }
+
+      if (pollResult == null) {
+        // Attempt to clear inventory before polling for operations
+        boolean inventoryCleared = false;
+        try {
+          inventoryCleared = InventoryUtil.clearInventory(this);
+        } catch (Exception e) {
+          System.err.println("Error clearing inventory: " + e.getMessage());
+          inventoryCleared = false;
+        }
+
+        // Long poll only once idle at home, so a bot that just finished work heads home right away
+        pollWaitMs = atHome ? this.operationPollWaitMs : 0;
+        try {
+          pollResult =
+              this.operator.pollOperation(
+                  this.agent,
+                  this.navigation.getCurrentLocation(),
+                  inventoryCleared,
+                  pollWaitMs,
+                  this.maxBatchedOperations,
+                  this.capabilities());
+        } catch (OperatorUnavailableException e) {
+          // Wait out the circuit breaker instead of polling an operator that is down
+          Thread.sleep(e.getRetryAfterMs());
+          continue;
+        } catch (IOException e) {
+          System.out.println("Poll failed: " + e);
+          Thread.sleep(1000);
+          continue;
+        }
+      }
 
       if (!(pollResult instanceof PollOperationResponse.OperationAvailable)) {
         if (!atHome) {
           try {
-            var signConfig = this.operator.getSignConfig();
-            var nodes = signConfig.getData().optJSONObject("nodes");
-
-            if (nodes != null) {
-              // Find first home node
-              for (var nodeKey : nodes.keySet()) {
-                var node = nodes.getJSONObject(nodeKey);
-                if (node.optBoolean("home", false)) {
-                  var location = node.getJSONObject("location");
-                  var vec3 = location.getJSONObject("vec3");
-                  String dimension = location.getString("dim");
-                  this.navigation.navigateTo(
-                      vec3.getInt("x"), vec3.getInt("y"), vec3.getInt("z"), dimension);
-                  break;
-                }
-              }
+            Location home = this.operator.getSignConfig().getHomeLocation();
+
+            if (home != null) {
+              Vec3 vec3 = home.vec3();
+              this.navigation.navigateTo(vec3.x(), vec3.y(), vec3.z(), home.dim());
             }
 
             atHome = true;
@@ -195,27 +696,45 @@ public class Bot {
             e.printStackTrace();
           }
         }
-        Thread.sleep(1000);
+
+        if (pollWaitMs == 0) {
+          Thread.sleep(1000);
+        }
         continue;
       }
 
       atHome = false; // Reset home flag when starting an operation
-      Operation op = ((PollOperationResponse.OperationAvailable) pollResult).getOperation();
+      PollOperationResponse.OperationAvailable available =
+          (PollOperationResponse.OperationAvailable) pollResult;
+      List<Operation> operations = available.getOperations();
+      Operation op = operations.get(operations.size() - 1);
       OperationKind kind = op.getKind();
 
-      System.out.println(
-          "acquired operation " + op.getKind().getClass().getName() + " (" + op.getId() + ")");
-
-      try {
+      for (Operation acquired : operations) {
+        System.out.println(
+            "acquired operation "
+                + acquired.getKind().getClass().getName()
+                + " ("
+                + acquired.getId()
+                + ")");
+        this.holdLeases.trackIds(Operator.holdIdsOf(acquired.getKind()));
+      }
 
-        if (kind instanceof ScanSignsOperationKind scanSignsKind) {
+      String finalStatus = "Complete";
+      // A batch gets the deadline of each operation it carries out
+      try (OperationContext context =
+          this.watchdog.begin(
+              "operation " + op.getId(), this.operationDeadlineMs * operations.size())) {
+        if (operations.size() > 1) {
+          BatchedTrip.execute(this, operations);
+        } else if (kind instanceof ScanSignsOperationKind scanSignsKind) {
           ScanSigns.execute(this, scanSignsKind);
         } else if (kind instanceof ScanInventoryOperationKind scanInventoryKind) {
           ScanInventory.execute(this, scanInventoryKind);
         } else if (kind instanceof MoveItemsOperationKind moveItemsKind) {
-          MoveItems.execute(this, moveItemsKind);
+          MoveItems.execute(this, moveItemsKind, available.getCarriedSources());
         } else if (kind instanceof DropItemsOperationKind dropItemsKind) {
-          DropItems.execute(this, dropItemsKind);
+          DropItems.execute(this, dropItemsKind, available.getCarriedSources());
         } else if (kind instanceof ImportInventoryOperationKind importInventoryKind) {
           ImportInventory.execute(this, importInventoryKind);
         } else if (kind instanceof LoadShulkerOperationKind loadShulkerKind) {
@@ -226,12 +745,37 @@ public class Bot {
           throw new Exception("unrecognized operation kind");
         }
 
-        this.operator.operationComplete(this.agent, op, "Complete");
+        // The operator must have every chest's new contents before the operation counts as done
+        this.awaitPendingUploads();
       } catch (Exception e) {
         System.out.println("operation failed");
         e.printStackTrace();
 
-        this.operator.operationComplete(this.agent, op, "Aborted");
+        finalStatus = "Aborted";
+      }
+
+      for (Operation acquired : operations) {
+        this.holdLeases.release(Operator.holdIdsOf(acquired.getKind()));
+      }
+
+      if (finalStatus.equals("Complete")) {
+        for (int i = 0; i < operations.size(); i++) {
+          this.recentCompletions.addLast(System.currentTimeMillis());
+        }
+      }
+
+      // Only the last operation of a batch can claim the next one, the rest are reported first
+      for (Operation batched : operations.subList(0, operations.size() - 1)) {
+        this.settlePendingUploads();
+        this.reportOperationComplete(batched, finalStatus);
+      }
+
+      // After an abort the inventory may be in any state, so take the usual route back to polling
+      if (this.pipelineOperations && finalStatus.equals("Complete") && !this.draining) {
+        this.prefetchedPoll = this.completeAndPollNext(op);
+      } else {
+        this.settlePendingUploads();
+        this.reportOperationComplete(op, finalStatus);
       }
     }
   }
@@ -0,0 +1,53 @@
+package me.mauldin.super_sorting_system.bot;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Whether the bot is in game. Waits hold on it while a reconnect is underway, so an operation
+ * interrupted by a server blip resumes once the bot is back instead of failing.
+ */
+public class ConnectionState {
+  private CompletableFuture<Void> online = new CompletableFuture<>();
+
+  public synchronized void established() {
+    this.online.complete(null);
+  }
+
+  public synchronized void lost() {
+    if (this.online.isDone()) {
+      this.online = new CompletableFuture<>();
+    }
+  }
+
+  public synchronized boolean isOnline() {
+    return this.online.isDone();
+  }
+
+  /** Blocks until the bot is in game, returning how many ms that took. */
+  public long awaitOnline() throws InterruptedException {
+    long startTime = System.nanoTime();
+    try {
+      this.current().get();
+    } catch (ExecutionException e) {
+      // Never completed exceptionally
+    }
+    return (System.nanoTime() - startTime) / 1000000;
+  }
+
+  /** Blocks until the bot is in game or timeoutMs passes, returning whether it is in game. */
+  public boolean awaitOnline(long timeoutMs) throws InterruptedException {
+    try {
+      this.current().get(timeoutMs, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (TimeoutException | ExecutionException e) {
+      return false;
+    }
+  }
+
+  private synchronized CompletableFuture<Void> current() {
+    return this.online;
+  }
+}
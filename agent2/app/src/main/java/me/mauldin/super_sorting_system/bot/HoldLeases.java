@@ -0,0 +1,117 @@
+package me.mauldin.super_sorting_system.bot;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import me.mauldin.super_sorting_system.Operator;
+import me.mauldin.super_sorting_system.Operator.Agent;
+import me.mauldin.super_sorting_system.Operator.Hold;
+
+/**
+ * Keeps the holds the bot is working with from expiring. Tracked holds are renewed in one batch
+ * whenever any of them comes within RENEW_AHEAD of its validUntil.
+ */
+public class HoldLeases {
+  private static final Duration RENEW_AHEAD = Duration.ofSeconds(90);
+
+  private final Operator operator;
+  private final Agent agent;
+  // Hold id to when it expires
+  private final ConcurrentHashMap<String, Instant> leases = new ConcurrentHashMap<>();
+  private final AtomicBoolean renewalInFlight = new AtomicBoolean(false);
+
+  public HoldLeases(Operator operator, Agent agent) {
+    this.operator = operator;
+    this.agent = agent;
+  }
+
+  public void track(Hold hold) {
+    this.leases.put(hold.id(), expiryOf(hold));
+  }
+
+  public void track(Collection<Hold> holds) {
+    for (Hold hold : holds) {
+      this.track(hold);
+    }
+  }
+
+  // Tracks holds known only by id, looking them up in the background
+  public void trackIds(List<String> holdIds) {
+    List<String> ids = holdIds.stream().filter(Objects::nonNull).toList();
+    if (ids.isEmpty()) {
+      return;
+    }
+
+    this.operator
+        .getHoldsAsync(ids, this.agent)
+        .thenAccept(this::track)
+        .exceptionally(
+            error -> {
+              System.out.println("leases: failed to look up holds: " + error);
+              return null;
+            });
+  }
+
+  public void release(String holdId) {
+    if (holdId != null) {
+      this.leases.remove(holdId);
+    }
+  }
+
+  public void release(Collection<String> holdIds) {
+    for (String holdId : holdIds) {
+      this.release(holdId);
+    }
+  }
+
+  /** Renews every tracked hold if any of them is about to expire. Called periodically. */
+  public void renewExpiring() {
+    Instant cutoff = Instant.now().plus(RENEW_AHEAD);
+    boolean anyExpiring = this.leases.values().stream().anyMatch(expiry -> expiry.isBefore(cutoff));
+    if (!anyExpiring || !this.renewalInFlight.compareAndSet(false, true)) {
+      return;
+    }
+
+    List<String> holdIds = List.copyOf(this.leases.keySet());
+    this.operator
+        .renewHoldsAsync(holdIds, this.agent)
+        .whenComplete(
+            (renewed, error) -> {
+              this.renewalInFlight.set(false);
+
+              if (error != null) {
+                System.out.println("leases: renewal failed: " + error);
+                return;
+              }
+
+              Set<String> renewedIds = new HashSet<>();
+              for (Hold hold : renewed) {
+                renewedIds.add(hold.id());
+                this.leases.computeIfPresent(hold.id(), (id, expiry) -> expiryOf(hold));
+              }
+
+              // Holds missing from the response are gone, there is nothing left to renew
+              for (String holdId : holdIds) {
+                if (!renewedIds.contains(holdId)) {
+                  this.leases.remove(holdId);
+                }
+              }
+            });
+  }
+
+  private static Instant expiryOf(Hold hold) {
+    try {
+      return Instant.parse(hold.validUntil());
+    } catch (DateTimeParseException e) {
+      // Renew on the next check rather than guessing
+      return Instant.EPOCH;
+    }
+  }
+}
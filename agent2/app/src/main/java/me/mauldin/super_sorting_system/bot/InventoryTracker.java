@@ -2,13 +2,15 @@ package me.mauldin.super_sorting_system.bot;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import me.mauldin.super_sorting_system.Operator;
 import me.mauldin.super_sorting_system.Operator.Agent;
+import me.mauldin.super_sorting_system.Operator.Location;
+import me.mauldin.super_sorting_system.Operator.Vec3;
 import org.cloudburstmc.math.vector.Vector3i;
 import org.geysermc.mcprotocollib.network.ClientSession;
-import org.geysermc.mcprotocollib.network.Session;
-import org.geysermc.mcprotocollib.network.event.session.SessionAdapter;
-import org.geysermc.mcprotocollib.network.packet.Packet;
 import org.geysermc.mcprotocollib.protocol.data.game.entity.object.Direction;
 import org.geysermc.mcprotocollib.protocol.data.game.entity.player.Hand;
 import org.geysermc.mcprotocollib.protocol.data.game.inventory.ClickItemAction;
@@ -42,11 +44,20 @@ import org.geysermc.mcprotocollib.protocol.packet.ingame.serverbound.player.Serv
  *
  */
 
-public class InventoryTracker extends SessionAdapter {
-  private final ClientSession client;
+public class InventoryTracker {
+  // Covers waiting for the chunk and for the server to answer repeated open attempts
+  private static final long WINDOW_OPEN_BUDGET_MS = 20000;
+
+  private volatile ClientSession client;
   private final Operator operator;
   private final Agent agent;
   private final Navigation navigation;
+  private final Telemetry telemetry;
+  private final Mailbox mailbox;
+  private final Watchdog watchdog;
+  private final ConnectionState connection;
+
+  // The fields below are only touched on the mailbox, other threads read the published snapshot
 
   // 36 items correspending to 27 main inventory slots then 9 hotbar slots
   private ItemStack[] playerInventory;
@@ -55,122 +66,244 @@ public class InventoryTracker extends SessionAdapter {
 
   private int stateId = 0;
   private int currentlyOpenScreen = 0;
+  // Where the open window is, and the window to reopen before the next transfer if a reconnect
+  // closed it
+  private volatile Vec3 openAt;
+  private volatile Vec3 reopenAt;
+  // Set on reconnect until the server resends the player inventory
+  private boolean reconciling = false;
+
+  private volatile Snapshot snapshot = new Snapshot(0, null, null);
+  // Signalled on every publish, a lock rather than a monitor so waiting doesn't pin a carrier
+  private final ReentrantLock snapshotLock = new ReentrantLock();
+  private final Condition snapshotChanged = this.snapshotLock.newCondition();
+
+  private record Snapshot(
+      int currentlyOpenScreen, ItemStack[] playerInventory, ItemStack[] containerInventory) {}
 
   public InventoryTracker(
-      ClientSession client, Navigation navigation, Operator operator, Agent agent) {
+      ClientSession client,
+      Navigation navigation,
+      Operator operator,
+      Agent agent,
+      Telemetry telemetry,
+      Mailbox mailbox,
+      Watchdog watchdog,
+      ConnectionState connection) {
     this.client = client;
+    this.mailbox = mailbox;
+    this.watchdog = watchdog;
+    this.connection = connection;
     this.navigation = navigation;
     this.operator = operator;
     this.agent = agent;
+    this.telemetry = telemetry;
   }
 
-  @Override
-  public void packetReceived(Session session, Packet packet) {
-    if (packet instanceof ClientboundOpenScreenPacket openScreenPacket) {
-      System.out.println("inv: screen opening");
-      boolean supportedType =
-          openScreenPacket.getType() == ContainerType.GENERIC_9X3
-              || openScreenPacket.getType() == ContainerType.SHULKER_BOX;
-      if (!supportedType) {
-        System.out.println(
-            "inv: container other than generic 9x3 or shulker box opened, initiating close.");
-        this.closeWindow();
-      }
+  /**
+   * Forgets the open window as soon as the connection drops, so a transfer waiting on the mailbox
+   * doesn't apply to a window the server has already closed. The window is reopened before the next
+   * transfer once the bot is back.
+   */
+  public void connectionLost() {
+    this.mailbox.post(
+        () -> {
+          if (this.currentlyOpenScreen != 0) {
+            this.reopenAt = this.openAt;
+          }
 
-      this.currentlyOpenScreen = openScreenPacket.getContainerId();
-      this.containerInventory = null;
-    } else if (packet instanceof ClientboundContainerSetContentPacket setContentPacket) {
-      System.out.println("set container content");
-      if (setContentPacket.getContainerId() != this.currentlyOpenScreen) {
-        System.out.println(
-            "inv: container other than currently tracked got set content packet, initiating close");
-        this.closeWindow();
-        return;
-      }
+          this.currentlyOpenScreen = 0;
+          this.containerInventory = null;
+          this.publish();
+        });
+  }
+
+  /**
+   * Switches to the session of a reconnect. The server closed any open window with the old session,
+   * so it is reopened before the next transfer, and the inventory is taken from what the server
+   * sends on join.
+   */
+  public void reconnected(ClientSession client) throws Exception {
+    this.mailbox.run(
+        () -> {
+          this.client = client;
+          if (this.currentlyOpenScreen != 0) {
+            this.reopenAt = this.openAt;
+          }
 
-      this.stateId = setContentPacket.getStateId();
+          this.currentlyOpenScreen = 0;
+          this.containerInventory = null;
+          this.stateId = 0;
+          this.reconciling = true;
+          this.publish();
+        });
+  }
 
-      if (setContentPacket.getContainerId() == 0) {
-        // Player inventory
-        this.playerInventory = Arrays.copyOfRange(setContentPacket.getItems(), 9, 45);
-      } else {
-        // Container inventory
-        this.containerInventory = Arrays.copyOfRange(setContentPacket.getItems(), 0, 27);
-        // Player inventory
-        this.playerInventory = Arrays.copyOfRange(setContentPacket.getItems(), 27, 63);
-      }
+  /** Subscribes to the window packets, each applied on the mailbox and then published. */
+  public void register(PacketRouter router) {
+    router.on(
+        ClientboundOpenScreenPacket.class,
+        (session, packet) -> this.applyOnMailbox(() -> this.screenOpened(packet)));
+    router.on(
+        ClientboundContainerSetContentPacket.class,
+        (session, packet) -> this.applyOnMailbox(() -> this.contentSet(packet)));
+    router.on(
+        ClientboundContainerSetSlotPacket.class,
+        (session, packet) -> this.applyOnMailbox(() -> this.slotSet(packet)));
+    router.on(
+        ClientboundContainerClosePacket.class,
+        (session, packet) -> this.applyOnMailbox(() -> this.screenClosed(packet)));
+  }
+
+  private void applyOnMailbox(Mailbox.Task change) {
+    this.mailbox.post(
+        () -> {
+          change.run();
+          this.publish();
+        });
+  }
+
+  // Copies the tracked state for other threads and wakes anyone waiting on a window
+  private void publish() {
+    this.snapshot =
+        new Snapshot(
+            this.currentlyOpenScreen,
+            this.playerInventory == null ? null : this.playerInventory.clone(),
+            this.containerInventory == null ? null : this.containerInventory.clone());
+
+    this.snapshotLock.lock();
+    try {
+      this.snapshotChanged.signalAll();
+    } finally {
+      this.snapshotLock.unlock();
+    }
+  }
+
+  private void screenOpened(ClientboundOpenScreenPacket openScreenPacket) throws Exception {
+    System.out.println("inv: screen opening");
+    boolean supportedType =
+        openScreenPacket.getType() == ContainerType.GENERIC_9X3
+            || openScreenPacket.getType() == ContainerType.SHULKER_BOX;
+    if (!supportedType) {
+      System.out.println(
+          "inv: container other than generic 9x3 or shulker box opened, initiating close.");
+      this.closeWindow();
+    }
+
+    this.currentlyOpenScreen = openScreenPacket.getContainerId();
+    this.containerInventory = null;
+  }
+
+  private void contentSet(ClientboundContainerSetContentPacket setContentPacket) throws Exception {
+    System.out.println("set container content");
+    if (setContentPacket.getContainerId() != this.currentlyOpenScreen) {
+      System.out.println(
+          "inv: container other than currently tracked got set content packet, initiating close");
+      this.closeWindow();
+      return;
+    }
 
-      synchronized (this) {
-        this.notifyAll();
+    this.stateId = setContentPacket.getStateId();
+
+    if (setContentPacket.getContainerId() == 0) {
+      // Player inventory
+      this.playerInventory = Arrays.copyOfRange(setContentPacket.getItems(), 9, 45);
+      if (this.reconciling) {
+        System.out.println("inv: reconciled player inventory after reconnect");
+        this.reconciling = false;
       }
-    } else if (packet instanceof ClientboundContainerSetSlotPacket setSlotPacket) {
-      if (setSlotPacket.getContainerId() != this.currentlyOpenScreen) {
-        System.out.println(
-            "inv: container other than currently tracked got set slot packet, initiating close");
-        this.closeWindow();
+    } else {
+      // Container inventory
+      this.containerInventory = Arrays.copyOfRange(setContentPacket.getItems(), 0, 27);
+      // Player inventory
+      this.playerInventory = Arrays.copyOfRange(setContentPacket.getItems(), 27, 63);
+    }
+  }
+
+  private void slotSet(ClientboundContainerSetSlotPacket setSlotPacket) throws Exception {
+    if (setSlotPacket.getContainerId() != this.currentlyOpenScreen) {
+      System.out.println(
+          "inv: container other than currently tracked got set slot packet, initiating close");
+      this.closeWindow();
+      return;
+    }
+
+    this.stateId = setSlotPacket.getStateId();
+    int slot = setSlotPacket.getSlot();
+
+    if (setSlotPacket.getContainerId() == 0) {
+      // Player inventory
+
+      int ourSlot = slot - 9;
+      if (ourSlot < 0 || ourSlot > 35) {
+        // We don't track these slots
         return;
       }
 
-      this.stateId = setSlotPacket.getStateId();
-      int slot = setSlotPacket.getSlot();
-
-      if (setSlotPacket.getContainerId() == 0) {
-        // Player inventory
+      this.playerInventory[ourSlot] = setSlotPacket.getItem();
+    } else {
+      if (slot < 27) {
+        // Container inventory
 
-        int ourSlot = slot - 9;
-        if (ourSlot < 0 || ourSlot > 35) {
-          // We don't track these slots
+        this.containerInventory[slot] = setSlotPacket.getItem();
+      } else {
+        int ourSlot = slot - 27;
+        if (ourSlot > 35) {
           return;
         }
 
         this.playerInventory[ourSlot] = setSlotPacket.getItem();
-      } else {
-        if (slot < 27) {
-          // Container inventory
-
-          this.containerInventory[slot] = setSlotPacket.getItem();
-        } else {
-          int ourSlot = slot - 27;
-          if (ourSlot > 35) {
-            return;
-          }
-
-          this.playerInventory[ourSlot] = setSlotPacket.getItem();
-        }
       }
-    } else if (packet instanceof ClientboundContainerClosePacket closePacket) {
-      if (closePacket.getContainerId() != this.currentlyOpenScreen) {
-        System.out.println(
-            "inv: container other than currently tracked got close packet, resetting state");
-      }
-
-      this.currentlyOpenScreen = 0;
-      this.containerInventory = null;
     }
   }
 
-  public void closeWindow() {
-    if (this.currentlyOpenScreen == 0) {
-      return;
+  private void screenClosed(ClientboundContainerClosePacket closePacket) throws Exception {
+    if (closePacket.getContainerId() != this.currentlyOpenScreen) {
+      System.out.println(
+          "inv: container other than currently tracked got close packet, resetting state");
     }
 
-    this.client.send(new ServerboundContainerClosePacket(this.currentlyOpenScreen));
-
     this.currentlyOpenScreen = 0;
     this.containerInventory = null;
+    this.openAt = null;
+  }
+
+  public void closeWindow() throws Exception {
+    this.mailbox.run(
+        () -> {
+          this.reopenAt = null;
+          if (this.currentlyOpenScreen == 0) {
+            return;
+          }
+
+          this.client.send(new ServerboundContainerClosePacket(this.currentlyOpenScreen));
+
+          this.currentlyOpenScreen = 0;
+          this.containerInventory = null;
+          this.openAt = null;
+          this.publish();
+        });
   }
 
-  public void openWindowAt(int x, int y, int z) throws InterruptedException {
+  public void openWindowAt(int x, int y, int z) throws Exception {
     System.out.println("inv: opening window at (" + x + ", " + y + ", " + z + ")");
+    long startTime = System.nanoTime();
     this.closeWindow();
 
+    Watchdog.Step windowOpen =
+        this.watchdog.step(
+            "inv: opening window at (" + x + ", " + y + ", " + z + ")", WINDOW_OPEN_BUDGET_MS);
     while (!this.navigation.isChunkLoadedAtPos(x, z)) {
-      Thread.sleep(100);
+      windowOpen.pause(100);
     }
 
-    while (this.currentlyOpenScreen == 0 || this.containerInventory == null) {
+    while (this.snapshot.currentlyOpenScreen() == 0 || this.snapshot.containerInventory() == null) {
+      // A reconnect swaps the session before the bot is back online, so resend on the new one
+      windowOpen.awaitOnline();
+      ClientSession client = this.client;
+
       System.out.println("sending open packet");
-      this.client.send(
+      client.send(
           new ServerboundUseItemOnPacket(
               Vector3i.from(x, y, z),
               Direction.DOWN,
@@ -182,23 +315,65 @@ public class InventoryTracker extends SessionAdapter {
               false,
               0));
 
-      synchronized (this) {
-        this.wait(1000);
+      this.snapshotLock.lock();
+      try {
+        this.snapshotChanged.await(windowOpen.allow(1000), TimeUnit.MILLISECONDS);
+      } finally {
+        this.snapshotLock.unlock();
       }
     }
     System.out.println("inv: window opened");
+    this.openAt = new Vec3(x, y, z);
+    this.reopenAt = null;
+
+    this.telemetry.recordWindowOpen(
+        new Location(new Vec3(x, y, z), this.navigation.getOperatorDimension()),
+        (System.nanoTime() - startTime) / 1000000 - windowOpen.getOfflineMs());
   }
 
+  // Snapshots as of the last change, not to be modified
+
   public ItemStack[] getContainerInventory() {
-    return this.containerInventory;
+    return this.snapshot.containerInventory();
   }
 
   public ItemStack[] getPlayerInventory() {
-    return this.playerInventory;
+    return this.snapshot.playerInventory();
   }
 
   public void transferItems(int playerSlot, int invSlot, int count, boolean toChest)
       throws Exception {
+    long startTime = System.nanoTime();
+    long offlineMs = 0;
+    while (true) {
+      offlineMs += this.connection.awaitOnline();
+      Vec3 reopenAt = this.reopenAt;
+      if (reopenAt != null) {
+        System.out.println("inv: reopening window closed by reconnect");
+        this.openWindowAt(reopenAt.x(), reopenAt.y(), reopenAt.z());
+      }
+
+      // If the connection dropped since, nothing is sent and it goes round again
+      boolean transferred =
+          this.mailbox.call(
+              () -> {
+                if (!this.connection.isOnline() || this.reopenAt != null) {
+                  return false;
+                }
+
+                this.transferItemsUntimed(playerSlot, invSlot, count, toChest);
+                this.publish();
+                return true;
+              });
+      if (transferred) {
+        break;
+      }
+    }
+    this.telemetry.recordTransfer((System.nanoTime() - startTime) / 1000000 - offlineMs);
+  }
+
+  private void transferItemsUntimed(int playerSlot, int invSlot, int count, boolean toChest)
+      throws Exception {
     System.out.println(
         "inv: transferitems call (playerSlot #"
             + playerSlot
@@ -347,6 +522,38 @@ public class InventoryTracker extends SessionAdapter {
   }
 
   public void dropItems(int playerSlot) throws Exception {
+    while (true) {
+      this.connection.awaitOnline();
+      // Like a transfer, goes round again if the connection dropped before it reached the mailbox
+      boolean dropped =
+          this.mailbox.call(
+              () -> {
+                if (!this.connection.isOnline()) {
+                  return false;
+                }
+
+                this.dropItemsNow(playerSlot);
+                this.publish();
+                return true;
+              });
+      if (dropped) {
+        return;
+      }
+    }
+  }
+
+  /** Marks a player slot empty after its item was used up outside of a window. */
+  public void clearPlayerSlot(int playerSlot) throws Exception {
+    this.mailbox.run(
+        () -> {
+          if (this.playerInventory != null) {
+            this.playerInventory[playerSlot] = null;
+          }
+          this.publish();
+        });
+  }
+
+  private void dropItemsNow(int playerSlot) throws Exception {
     if (this.currentlyOpenScreen != 0) {
       throw new Exception("unable to drop items, in inventory");
     }
@@ -3,6 +3,7 @@ package me.mauldin.super_sorting_system.bot;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 import me.mauldin.super_sorting_system.Operator.FreeHoldResponse;
@@ -94,32 +95,35 @@ public class InventoryUtil {
       }
 
       Hold hold = holdAcquired.getHold();
-      Location location = hold.getLocation();
-      Vec3 openFrom = hold.getOpenFrom();
-      String holdId = hold.getId();
+      Location location = hold.location();
+      Vec3 openFrom = hold.openFrom();
+      String holdId = hold.id();
+      bot.holdLeases.track(hold);
 
       try {
         // Navigate to the chest opening position
-        bot.navigation.navigateTo(
-            openFrom.getX(), openFrom.getY(), openFrom.getZ(), location.getDim());
+        bot.navigation.navigateTo(openFrom.x(), openFrom.y(), openFrom.z(), location.dim());
 
         // Open the chest
         bot.inventoryTracker.openWindowAt(
-            location.getVec3().getX(), location.getVec3().getY(), location.getVec3().getZ());
+            location.vec3().x(), location.vec3().y(), location.vec3().z());
 
         // Transfer the entire stack from player inventory to chest
-        bot.inventoryTracker.transferItems(invSlot, hold.getSlot(), Integer.MAX_VALUE, true);
+        bot.inventoryTracker.transferItems(invSlot, hold.slot(), Integer.MAX_VALUE, true);
 
         InventoryUtil.uploadInventoryData(bot, location, openFrom);
 
         // Close the chest
         bot.inventoryTracker.closeWindow();
 
-        // Release the hold
+        // Release the hold once the operator has the chest's new contents
+        bot.awaitPendingUploads();
+        bot.holdLeases.release(holdId);
         bot.operator.releaseHold(holdId);
 
       } catch (Exception e) {
         // Release the hold even if operation failed
+        bot.holdLeases.release(holdId);
         try {
           bot.operator.releaseHold(holdId);
         } catch (Exception releaseException) {
@@ -133,21 +137,91 @@ public class InventoryUtil {
     return true;
   }
 
+  // Snapshots the open container and uploads it in the background
   public static void uploadInventoryData(Bot bot, Location loc, Vec3 openFromVec) throws Exception {
+    uploadInventoryData(bot, loc, openFromVec, List.of());
+  }
+
+  /**
+   * Also reports the holds the current operation is done with in this container, so if the
+   * operation later aborts the operator knows their contents without rescanning.
+   */
+  public static void uploadInventoryData(
+      Bot bot, Location loc, Vec3 openFromVec, List<String> fulfilledHolds) throws Exception {
     ItemStack[] items = bot.inventoryTracker.getContainerInventory();
-    List<Item> slots =
-        Arrays.stream(items)
-            .map(
-                stack -> {
-                  if (stack == null) return null;
-                  DataComponents components = stack.getDataComponentsPatch();
-                  Object serializedComponents =
-                      components != null ? InventoryUtil.serializeDataComponents(components) : null;
-                  return new Item(stack.getId(), stack.getAmount(), serializedComponents);
-                })
-            .collect(Collectors.toList());
-
-    bot.operator.inventoryScanned(slots, loc, openFromVec, bot.agent);
+    List<Item> slots = Arrays.stream(items).map(InventoryUtil::toItem).collect(Collectors.toList());
+    List<String> fulfilled = List.copyOf(fulfilledHolds);
+
+    bot.queueUpload(
+        () -> bot.operator.inventoryScannedAsync(slots, loc, openFromVec, fulfilled, bot.agent));
+  }
+
+  /**
+   * Picks the player inventory slot each of an operation's sources goes through. Carried sources
+   * use the slot already holding their items, the rest take free slots in order.
+   */
+  public static int[] allocateSlots(Bot bot, int sourceCount, Integer[] carriedSources)
+      throws Exception {
+    ItemStack[] playerInventory = bot.inventoryTracker.getPlayerInventory();
+    HashSet<Integer> taken = new HashSet<>();
+    int[] slots = new int[sourceCount];
+
+    if (carriedSources != null) {
+      for (Integer carried : carriedSources) {
+        if (carried != null) {
+          taken.add(carried);
+        }
+      }
+    }
+
+    int nextFree = 0;
+    for (int i = 0; i < sourceCount; i++) {
+      if (carriedSources != null && carriedSources[i] != null) {
+        slots[i] = carriedSources[i];
+        continue;
+      }
+
+      while (nextFree < 36
+          && (taken.contains(nextFree)
+              || (playerInventory != null && playerInventory[nextFree] != null))) {
+        nextFree++;
+      }
+      if (nextFree >= 36) {
+        throw new Exception("no free inventory slot for source " + i);
+      }
+
+      slots[i] = nextFree;
+      taken.add(nextFree);
+    }
+
+    return slots;
+  }
+
+  // The operator's view of a stack, null for an empty slot
+  public static Item toItem(ItemStack stack) {
+    if (stack == null) return null;
+    DataComponents components = stack.getDataComponentsPatch();
+    Object serializedComponents =
+        components != null ? InventoryUtil.serializeDataComponents(components) : null;
+    return new Item(stack.getId(), stack.getAmount(), serializedComponents);
+  }
+
+  /**
+   * Resolves hold ids with a single request, keeping their positions. Null ids (slots an operation
+   * leaves empty) resolve to null.
+   */
+  public static Hold[] resolveHolds(Bot bot, String[] holdIds) throws Exception {
+    List<String> ids = Arrays.stream(holdIds).filter(id -> id != null).toList();
+    Iterator<Hold> holds = bot.operator.getHolds(ids, bot.agent).iterator();
+
+    Hold[] resolved = new Hold[holdIds.length];
+    for (int i = 0; i < holdIds.length; i++) {
+      if (holdIds[i] != null) {
+        resolved[i] = holds.next();
+      }
+    }
+
+    return resolved;
   }
 
   public static HashedStack itemStackToHashedStack(ItemStack itemStack) {
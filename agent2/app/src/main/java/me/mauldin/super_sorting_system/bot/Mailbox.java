@@ -0,0 +1,75 @@
+package me.mauldin.super_sorting_system.bot;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs a bot's state changes one at a time on a single thread. Packet handlers post to it and
+ * operation code calls into it, so tracked state is only ever written from the mailbox and other
+ * threads read snapshots published from it.
+ */
+public class Mailbox {
+  public interface Task {
+    void run() throws Exception;
+  }
+
+  private final ExecutorService executor;
+  private volatile Thread thread;
+
+  public Mailbox(String name) {
+    this.executor =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = Thread.ofVirtual().name(name).unstarted(runnable);
+              this.thread = thread;
+              return thread;
+            });
+  }
+
+  /** Queues a task without waiting for it, for handlers on the network thread. */
+  public void post(Task task) {
+    try {
+      this.executor.execute(
+          () -> {
+            try {
+              task.run();
+            } catch (Exception e) {
+              System.out.println("mailbox: task failed: " + e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // Shut down, packets arriving during disconnect are dropped
+    }
+  }
+
+  /** Runs a task on the mailbox and waits for it, running it directly if already there. */
+  public <T> T call(Callable<T> task) throws Exception {
+    if (Thread.currentThread() == this.thread) {
+      return task.call();
+    }
+
+    try {
+      return this.executor.submit(task).get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  public void run(Task task) throws Exception {
+    this.call(
+        () -> {
+          task.run();
+          return null;
+        });
+  }
+
+  public void shutdown() {
+    this.executor.shutdownNow();
+  }
+}
@@ -5,17 +5,20 @@ import com.google.gson.JsonParser;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
+import me.mauldin.super_sorting_system.Config;
 import net.lenni0451.commons.httpclient.HttpClient;
 import net.raphimc.minecraftauth.MinecraftAuth;
 import net.raphimc.minecraftauth.step.java.session.StepFullJavaSession.FullJavaSession;
 import net.raphimc.minecraftauth.step.msa.StepMsaDeviceCode;
 
 public class McAuth {
-  public static FullJavaSession getSession() throws Exception {
+  public static FullJavaSession getSession(String account) throws Exception {
     HttpClient httpClient = MinecraftAuth.createHttpClient();
 
     // Attempt to load existing credentials
-    File authFile = new File("auth.json");
+    File authFile =
+        new File(
+            account.equals(Config.DEFAULT_ACCOUNT) ? "auth.json" : "auth-" + account + ".json");
     if (authFile.exists()) {
       FileReader reader = new FileReader(authFile);
       JsonObject serializedSession = JsonParser.parseReader(reader).getAsJsonObject();
@@ -28,7 +31,7 @@ public class McAuth {
     }
 
     // Get new login
-    System.out.println("No valid session found, starting new login...");
+    System.out.println("No valid session found for " + account + ", starting new login...");
     FullJavaSession javaSession =
         MinecraftAuth.JAVA_DEVICE_CODE_LOGIN.getFromInput(
             httpClient,
@@ -45,4 +48,14 @@ public class McAuth {
 
     return javaSession;
   }
+
+  /** Returns the session as is while its tokens are valid, otherwise refreshes it. */
+  public static FullJavaSession refreshIfExpired(FullJavaSession session) throws Exception {
+    if (!session.isExpired()) {
+      return session;
+    }
+
+    System.out.println("Refreshing expired session for: " + session.getMcProfile().getName());
+    return MinecraftAuth.JAVA_DEVICE_CODE_LOGIN.refresh(MinecraftAuth.createHttpClient(), session);
+  }
 }
@@ -5,8 +5,12 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import me.mauldin.super_sorting_system.Operator;
 import me.mauldin.super_sorting_system.Operator.Agent;
+import me.mauldin.super_sorting_system.Operator.Dimension;
+import me.mauldin.super_sorting_system.Operator.LoadedChunks;
 import me.mauldin.super_sorting_system.Operator.Location;
 import me.mauldin.super_sorting_system.Operator.PathfindingResponse;
 import me.mauldin.super_sorting_system.Operator.PfResultNode;
@@ -14,8 +18,6 @@ import me.mauldin.super_sorting_system.Operator.Vec3;
 import org.cloudburstmc.math.vector.Vector3d;
 import org.geysermc.mcprotocollib.network.ClientSession;
 import org.geysermc.mcprotocollib.network.Session;
-import org.geysermc.mcprotocollib.network.event.session.SessionAdapter;
-import org.geysermc.mcprotocollib.network.packet.Packet;
 import org.geysermc.mcprotocollib.protocol.data.game.ClientCommand;
 import org.geysermc.mcprotocollib.protocol.data.game.entity.metadata.GlobalPos;
 import org.geysermc.mcprotocollib.protocol.data.game.entity.player.PlayerSpawnInfo;
@@ -31,153 +33,179 @@ import org.geysermc.mcprotocollib.protocol.packet.ingame.serverbound.level.Serve
 import org.geysermc.mcprotocollib.protocol.packet.ingame.serverbound.player.ServerboundMovePlayerPosPacket;
 import org.geysermc.mcprotocollib.protocol.packet.ingame.serverbound.player.ServerboundMovePlayerRotPacket;
 
-public class Navigation extends SessionAdapter {
-  private String dimension = "";
-  private boolean dimensionReady = false;
+public class Navigation {
+  // How long to keep moving into a spot before giving up on its chunk arriving
+  private static final long CHUNK_LOAD_BUDGET_MS = 30000;
 
-  private double x = 0;
-  private double y = 0;
-  private double z = 0;
-  private boolean positionReady = false;
+  // Only replaced on the mailbox, everything else reads it as a snapshot
+  private volatile PlayerState state = new PlayerState("", false, 0, 0, 0, false);
+
+  private volatile PrefetchedPath prefetchedPath;
 
   private Set<ChunkPos> loadedChunks = Collections.synchronizedSet(new HashSet());
 
-  private ClientSession client;
+  // Replaced on the mailbox when the bot reconnects
+  private volatile ClientSession client;
   private Operator operator;
   private Agent agent;
-
-  public Navigation(ClientSession client, Operator operator, Agent agent) {
+  private Telemetry telemetry;
+  private Mailbox mailbox;
+  private Watchdog watchdog;
+
+  public Navigation(
+      ClientSession client,
+      Operator operator,
+      Agent agent,
+      Telemetry telemetry,
+      Mailbox mailbox,
+      Watchdog watchdog) {
     this.client = client;
+    this.mailbox = mailbox;
+    this.watchdog = watchdog;
     this.operator = operator;
     this.agent = agent;
+    this.telemetry = telemetry;
   }
 
-  @Override
-  public void packetReceived(Session session, Packet packet) {
-    if (packet instanceof ClientboundRespawnPacket respawnPacket) {
-      PlayerSpawnInfo spawnInfo = respawnPacket.getCommonPlayerSpawnInfo();
-      if (spawnInfo.getLastDeathPos() != null) {
-        GlobalPos deathPos = spawnInfo.getLastDeathPos();
-        System.out.println(
-            "nav: death pos ("
-                + deathPos.getX()
-                + ", "
-                + deathPos.getY()
-                + ", "
-                + deathPos.getZ()
-                + ") ["
-                + deathPos.getDimension().value()
-                + "]");
-        session.send(new ServerboundClientCommandPacket(ClientCommand.RESPAWN));
-      }
-      this.dimension = spawnInfo.getWorldName().toString();
-      this.dimensionReady = true;
-      this.positionReady = false;
-      this.loadedChunks.clear();
-    } else if (packet instanceof ClientboundLoginPacket loginPacket) {
-      PlayerSpawnInfo spawnInfo = loginPacket.getCommonPlayerSpawnInfo();
-      if (spawnInfo.getLastDeathPos() != null) {
-        GlobalPos deathPos = spawnInfo.getLastDeathPos();
-        System.out.println(
-            "nav: death pos ("
-                + deathPos.getX()
-                + ", "
-                + deathPos.getY()
-                + ", "
-                + deathPos.getZ()
-                + ") ["
-                + deathPos.getDimension().value()
-                + "]");
-        session.send(new ServerboundClientCommandPacket(ClientCommand.RESPAWN));
-      }
-      this.dimension = spawnInfo.getWorldName().toString();
-      this.dimensionReady = true;
-      this.positionReady = false;
-      this.loadedChunks.clear();
-    } else if (packet instanceof ClientboundLevelChunkWithLightPacket chunkPacket) {
-      loadedChunks.add(new ChunkPos(chunkPacket.getX(), chunkPacket.getZ()));
-    } else if (packet instanceof ClientboundForgetLevelChunkPacket chunkPacket) {
-      loadedChunks.add(new ChunkPos(chunkPacket.getX(), chunkPacket.getZ()));
-    } else if (packet instanceof ClientboundPlayerCombatKillPacket) {
-      this.dimensionReady = false;
-      this.positionReady = false;
-      System.out.println("Entered respawn screen");
+  /**
+   * Switches to the session of a reconnect. Position and chunks are forgotten until the server
+   * sends them again, so moves wait for the bot to be placed back in the world.
+   */
+  public void reconnected(ClientSession client) throws Exception {
+    this.mailbox.run(
+        () -> {
+          PlayerState state = this.state;
+          this.client = client;
+          this.state =
+              new PlayerState(state.dimension(), false, state.x(), state.y(), state.z(), false);
+          this.loadedChunks.clear();
+        });
+  }
+
+  /** Subscribes to the packets navigation tracks, each handled on the mailbox. */
+  public void register(PacketRouter router) {
+    router.on(
+        ClientboundRespawnPacket.class,
+        (session, packet) ->
+            this.mailbox.post(() -> this.spawned(session, packet.getCommonPlayerSpawnInfo())));
+    router.on(
+        ClientboundLoginPacket.class,
+        (session, packet) ->
+            this.mailbox.post(() -> this.spawned(session, packet.getCommonPlayerSpawnInfo())));
+    router.on(
+        ClientboundLevelChunkWithLightPacket.class,
+        (session, packet) ->
+            this.mailbox.post(
+                () -> this.loadedChunks.add(new ChunkPos(packet.getX(), packet.getZ()))));
+    router.on(
+        ClientboundForgetLevelChunkPacket.class,
+        (session, packet) ->
+            this.mailbox.post(
+                () -> this.loadedChunks.remove(new ChunkPos(packet.getX(), packet.getZ()))));
+    router.on(
+        ClientboundPlayerCombatKillPacket.class,
+        (session, packet) -> this.mailbox.post(() -> this.killed(session)));
+    router.on(
+        ClientboundPlayerPositionPacket.class,
+        (session, packet) -> this.mailbox.post(() -> this.positionSet(session, packet)));
+  }
+
+  private void spawned(Session session, PlayerSpawnInfo spawnInfo) {
+    if (spawnInfo.getLastDeathPos() != null) {
+      GlobalPos deathPos = spawnInfo.getLastDeathPos();
+      System.out.println(
+          "nav: death pos ("
+              + deathPos.getX()
+              + ", "
+              + deathPos.getY()
+              + ", "
+              + deathPos.getZ()
+              + ") ["
+              + deathPos.getDimension().value()
+              + "]");
       session.send(new ServerboundClientCommandPacket(ClientCommand.RESPAWN));
-    } else if (packet instanceof ClientboundPlayerPositionPacket positionPacket) {
-      session.send(new ServerboundAcceptTeleportationPacket(positionPacket.getId()));
+    }
+    this.state = this.state.inDimension(spawnInfo.getWorldName().toString());
+    this.loadedChunks.clear();
+  }
 
-      if (this.positionReady) {
-        System.out.println("nav: resending position after declined tp");
-        this.client.send(new ServerboundMovePlayerPosPacket(true, false, this.x, this.y, this.z));
-        return;
-      }
+  private void killed(Session session) {
+    PlayerState state = this.state;
+    this.state = new PlayerState(state.dimension(), false, state.x(), state.y(), state.z(), false);
+    System.out.println("Entered respawn screen");
+    session.send(new ServerboundClientCommandPacket(ClientCommand.RESPAWN));
+  }
 
-      Vector3d position = positionPacket.getPosition();
-      double x = position.getX();
-      double y = position.getY();
-      double z = position.getZ();
-      List<PositionElement> relatives = positionPacket.getRelatives();
+  private void positionSet(Session session, ClientboundPlayerPositionPacket positionPacket) {
+    PlayerState state = this.state;
+    session.send(new ServerboundAcceptTeleportationPacket(positionPacket.getId()));
 
-      if (relatives.contains(PositionElement.X)) {
-        this.x += x;
-      } else {
-        this.x = x;
-      }
+    if (state.positionReady()) {
+      System.out.println("nav: resending position after declined tp");
+      this.client.send(
+          new ServerboundMovePlayerPosPacket(true, false, state.x(), state.y(), state.z()));
+      return;
+    }
 
-      if (relatives.contains(PositionElement.Y)) {
-        this.y += y;
-      } else {
-        this.y = y;
-      }
+    Vector3d position = positionPacket.getPosition();
+    List<PositionElement> relatives = positionPacket.getRelatives();
 
-      if (relatives.contains(PositionElement.Z)) {
-        this.z += z;
-      } else {
-        this.z = z;
-      }
+    double x =
+        relatives.contains(PositionElement.X) ? state.x() + position.getX() : position.getX();
+    double y =
+        relatives.contains(PositionElement.Y) ? state.y() + position.getY() : position.getY();
+    double z =
+        relatives.contains(PositionElement.Z) ? state.z() + position.getZ() : position.getZ();
 
-      System.out.println("nav: position accepted");
+    System.out.println("nav: position accepted");
 
-      this.positionReady = true;
-    }
+    this.state = new PlayerState(state.dimension(), state.dimensionReady(), x, y, z, true);
+  }
+
+  public Dimension getOperatorDimension() {
+    return operatorDimension(this.state.dimension());
   }
 
-  public String getOperatorDimension() {
-    if (this.dimension.equals("minecraft:the_nether")) {
-      return "TheNether";
-    } else if (this.dimension.equals("minecraft:the_end")) {
-      return "TheEnd";
+  private static Dimension operatorDimension(String dimension) {
+    if (dimension.equals("minecraft:the_nether")) {
+      return Dimension.TheNether;
+    } else if (dimension.equals("minecraft:the_end")) {
+      return Dimension.TheEnd;
     }
 
-    return "Overworld";
+    return Dimension.Overworld;
   }
 
   public boolean isReady() {
-    return this.dimensionReady && this.positionReady;
+    PlayerState state = this.state;
+    return state.dimensionReady() && state.positionReady();
   }
 
   public Location getCurrentLocation() {
+    PlayerState state = this.state;
     return new Location(
         new Vec3(
-            ((int) Math.floor(this.x)), ((int) Math.floor(this.y)), ((int) Math.floor(this.z))),
-        this.getOperatorDimension());
+            ((int) Math.floor(state.x())),
+            ((int) Math.floor(state.y())),
+            ((int) Math.floor(state.z()))),
+        operatorDimension(state.dimension()));
   }
 
-  public void navigateTo(int x, int y, int z, String dimension)
+  public void navigateTo(int x, int y, int z, Dimension dimension)
       throws IOException, InterruptedException, Exception {
     System.out.println(
         "nav: starting navigation to (" + x + ", " + y + ", " + z + ") [" + dimension + "]");
-    if (((int) Math.floor(this.x)) == x
-        && ((int) Math.floor(this.y)) == y
-        && ((int) Math.floor(this.z)) == z
-        && dimension.equals(this.getOperatorDimension())) {
+    Location start = this.getCurrentLocation();
+    Location end = new Location(new Vec3(x, y, z), dimension);
+    if (start.equals(end)) {
       System.out.println("nav: exiting - already at destination");
       return;
     }
 
-    PathfindingResponse resp =
-        this.operator.findPath(
-            this.agent, this.getCurrentLocation(), new Location(new Vec3(x, y, z), dimension));
+    PathfindingResponse resp = this.takePrefetchedPath(start, end);
+    if (resp == null) {
+      resp = this.operator.findPath(this.agent, start, end);
+    }
 
     if (!(resp instanceof PathfindingResponse.PathFound pathFound)) {
       throw new Exception("nav: error getting path");
@@ -187,43 +215,84 @@ public class Navigation extends SessionAdapter {
     for (PfResultNode node : path) {
       if (node instanceof PfResultNode.Vec vecNode) {
         Vec3 vec = vecNode.getVec();
-        this.flyTo((int) vec.getX(), (int) vec.getY(), (int) vec.getZ());
+        this.flyTo((int) vec.x(), (int) vec.y(), (int) vec.z());
       } else if (node instanceof PfResultNode.Portal portalNode) {
         Vec3 vec = portalNode.getVec();
-        this.takePortal((int) vec.getX(), (int) vec.getY(), (int) vec.getZ());
+        this.takePortal((int) vec.x(), (int) vec.y(), (int) vec.z());
       } else {
         throw new Exception("nav: unrecognized path node");
       }
     }
 
     System.out.println("nav: complete");
-    Thread.sleep(100);
+    this.watchdog.sleep(100);
+  }
+
+  /**
+   * Starts finding a path from the current location to end in the background. The next navigateTo
+   * between the same two points uses it instead of asking the operator again.
+   */
+  public void prefetchPath(Location end) {
+    Location start = this.getCurrentLocation();
+    this.prefetchedPath =
+        new PrefetchedPath(start, end, this.operator.findPathAsync(this.agent, start, end));
+  }
+
+  private PathfindingResponse takePrefetchedPath(Location start, Location end)
+      throws InterruptedException {
+    PrefetchedPath prefetched = this.prefetchedPath;
+    this.prefetchedPath = null;
+
+    if (prefetched == null || !prefetched.start().equals(start) || !prefetched.end().equals(end)) {
+      return null;
+    }
+
+    try {
+      return prefetched.path().get();
+    } catch (ExecutionException e) {
+      return null;
+    }
   }
 
-  public void flyTo(int x, int y, int z) throws InterruptedException {
+  public void flyTo(int x, int y, int z) throws Exception {
     double xf = x + 0.5;
     double yf = y;
     double zf = z + 0.5;
     System.out.println("nav: fly to (" + x + ", " + y + ", " + z + ")");
-    Thread.sleep(100);
+    long startTime = System.nanoTime();
+    PlayerState state = this.state;
+    double legBlocks =
+        Math.sqrt(
+            (xf - state.x()) * (xf - state.x())
+                + (yf - state.y()) * (yf - state.y())
+                + (zf - state.z()) * (zf - state.z()));
+    this.watchdog.sleep(100);
 
     this.setLocationWithPacket(xf, yf, zf);
-    Thread.sleep(100);
+    this.watchdog.sleep(100);
 
+    Watchdog.Step chunkLoad =
+        this.watchdog.step("nav: loading chunk at destination", CHUNK_LOAD_BUDGET_MS);
     while (!this.isChunkLoadedAtPos(x, z)) {
       this.setLocationWithPacket(xf, yf, zf);
-      Thread.sleep(100);
+      chunkLoad.pause(100);
     }
     System.out.println("nav: chunk loaded");
-  }
 
-  private void setLocationWithPacket(double x, double y, double z) {
-    this.x = x;
-    this.y = y;
-    this.z = z;
+    this.telemetry.recordTravel(legBlocks, (System.nanoTime() - startTime) / 1000000);
+  }
 
-    // Relies on /gamerule disablePlayerMovementCheck true
-    this.client.send(new ServerboundMovePlayerPosPacket(true, false, this.x, this.y, this.z));
+  private void setLocationWithPacket(double x, double y, double z) throws Exception {
+    this.mailbox.run(
+        () -> {
+          PlayerState state = this.state;
+          this.state =
+              new PlayerState(
+                  state.dimension(), state.dimensionReady(), x, y, z, state.positionReady());
+
+          // Relies on /gamerule disablePlayerMovementCheck true
+          this.client.send(new ServerboundMovePlayerPosPacket(true, false, x, y, z));
+        });
   }
 
   public void takePortal(int x, int y, int z) throws Exception {
@@ -231,44 +300,51 @@ public class Navigation extends SessionAdapter {
     double yf = y;
     double zf = z + 0.5;
 
-    double startingX = this.x;
-    double startingY = this.y;
-    double startingZ = this.z;
+    PlayerState startingState = this.state;
+    double startingX = startingState.x();
+    double startingY = startingState.y();
+    double startingZ = startingState.z();
 
-    String startingDim = this.dimension;
+    String startingDim = startingState.dimension();
+    Location portalLocation = new Location(new Vec3(x, y, z), this.getOperatorDimension());
+    long portalStartTime = System.nanoTime();
 
-    for (int i = 0; i < 3 && startingDim.equals(this.dimension); i++) {
+    for (int i = 0; i < 3 && startingDim.equals(this.state.dimension()); i++) {
       System.out.println(
           "nav: taking portal from " + this.getOperatorDimension() + "... (" + (i + 1) + "/3)");
 
       this.setLocationWithPacket(startingX, startingY, startingZ);
-      Thread.sleep(700 + (i * 750));
+      this.watchdog.sleep(700 + (i * 750));
       this.setLocationWithPacket(xf, yf, zf);
-      Thread.sleep(700 + (i * 750));
+      this.watchdog.sleep(700 + (i * 750));
 
       long startTime = System.nanoTime();
 
-      while (startingDim.equals(this.dimension)) {
+      while (startingDim.equals(this.state.dimension())) {
         long elapsedMs = (System.nanoTime() - startTime) / 1000000;
         if (elapsedMs > 3000) {
           break;
         }
 
         this.setLocationWithPacket(xf, yf, zf);
-        Thread.sleep(500);
+        this.watchdog.sleep(500);
       }
     }
 
-    if (startingDim.equals(this.dimension)) {
+    if (startingDim.equals(this.state.dimension())) {
       throw new Exception("nav: failed to take portal");
     }
 
     System.out.println("nav: dimension transferred");
 
-    while (!this.isChunkLoadedAtPos((int) this.x, (int) this.z)) {
-      Thread.sleep(100);
+    Watchdog.Step chunkLoad =
+        this.watchdog.step("nav: loading chunk past portal", CHUNK_LOAD_BUDGET_MS);
+    while (!this.isChunkLoadedAtPos((int) this.state.x(), (int) this.state.z())) {
+      chunkLoad.pause(100);
     }
     System.out.println("nav: portal taken");
+
+    this.telemetry.recordPortal(portalLocation, (System.nanoTime() - portalStartTime) / 1000000);
   }
 
   public void lookTowards(int towardsX, int towardsY, int towardsZ) {
@@ -286,9 +362,10 @@ public class Navigation extends SessionAdapter {
      */
 
     // Calculate deltas
-    double dx = (towardsX + 0.5) - this.x;
-    double dy = towardsY - this.y;
-    double dz = (towardsZ + 0.5) - this.z;
+    PlayerState state = this.state;
+    double dx = (towardsX + 0.5) - state.x();
+    double dy = towardsY - state.y();
+    double dz = (towardsZ + 0.5) - state.z();
 
     // Calculate distance
     double r = Math.sqrt(dx * dx + dy * dy + dz * dz);
@@ -311,5 +388,43 @@ public class Navigation extends SessionAdapter {
     return this.loadedChunks.contains(pos);
   }
 
+  /** Bounds of the loaded chunks in chunk coordinates, or null when none are loaded. */
+  public LoadedChunks getLoadedChunks() {
+    synchronized (this.loadedChunks) {
+      if (this.loadedChunks.isEmpty()) {
+        return null;
+      }
+
+      int minX = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE;
+      int minZ = Integer.MAX_VALUE;
+      int maxZ = Integer.MIN_VALUE;
+      for (ChunkPos pos : this.loadedChunks) {
+        minX = Math.min(minX, pos.x());
+        maxX = Math.max(maxX, pos.x());
+        minZ = Math.min(minZ, pos.z());
+        maxZ = Math.max(maxZ, pos.z());
+      }
+
+      return new LoadedChunks(this.getOperatorDimension(), minX, maxX, minZ, maxZ);
+    }
+  }
+
+  record PlayerState(
+      String dimension,
+      boolean dimensionReady,
+      double x,
+      double y,
+      double z,
+      boolean positionReady) {
+    // Joining or changing dimension, the server sends a fresh position next
+    PlayerState inDimension(String dimension) {
+      return new PlayerState(dimension, true, x, y, z, false);
+    }
+  }
+
   record ChunkPos(int x, int z) {}
+
+  record PrefetchedPath(
+      Location start, Location end, CompletableFuture<PathfindingResponse> path) {}
 }
@@ -0,0 +1,8 @@
+package me.mauldin.super_sorting_system.bot;
+
+/** Thrown from a wait when its step or the operation it belongs to has run out of time. */
+public class OperationCancelledException extends Exception {
+  public OperationCancelledException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,62 @@
+package me.mauldin.super_sorting_system.bot;
+
+/**
+ * The deadline of one operation (or batch) a bot is running, and whether it has been cancelled.
+ * Closing it ends the operation.
+ */
+public class OperationContext implements AutoCloseable {
+  private final Watchdog watchdog;
+  private final String description;
+  private final long deadlineNanos;
+  private final Thread owner;
+  private String cancelReason;
+  private boolean closed;
+
+  OperationContext(Watchdog watchdog, String description, long budgetMs) {
+    this.watchdog = watchdog;
+    this.description = description;
+    this.deadlineNanos = System.nanoTime() + budgetMs * 1000000;
+    this.owner = Thread.currentThread();
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  // Negative while there is still time left
+  public long overdueMs() {
+    return (System.nanoTime() - this.deadlineNanos) / 1000000;
+  }
+
+  /** Throws if the operation was cancelled or has run past its deadline. */
+  public synchronized void check() throws OperationCancelledException {
+    if (this.cancelReason != null) {
+      throw new OperationCancelledException(this.description + ": " + this.cancelReason);
+    }
+
+    if (this.overdueMs() > 0) {
+      throw new OperationCancelledException(this.description + ": deadline exceeded");
+    }
+  }
+
+  /** Cancels the operation, interrupting its thread out of whatever it is blocked on. */
+  public synchronized void cancel(String reason) {
+    if (this.closed || this.cancelReason != null) {
+      return;
+    }
+
+    this.cancelReason = reason;
+    this.owner.interrupt();
+  }
+
+  @Override
+  public synchronized void close() {
+    this.closed = true;
+    this.watchdog.ended(this);
+
+    // The interrupt was only meant to cancel this operation
+    if (this.cancelReason != null) {
+      Thread.interrupted();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package me.mauldin.super_sorting_system.bot;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import org.geysermc.mcprotocollib.network.Session;
+import org.geysermc.mcprotocollib.network.event.session.SessionAdapter;
+import org.geysermc.mcprotocollib.network.packet.Packet;
+
+/**
+ * Hands each packet to the handlers registered for its class with a single lookup. Packets nobody
+ * registered for are only counted, so the flood of entity, light and sound packets costs next to
+ * nothing.
+ */
+public class PacketRouter extends SessionAdapter {
+  public interface Handler<P extends Packet> {
+    void handle(Session session, P packet) throws Exception;
+  }
+
+  private final Map<Class<?>, List<Handler<Packet>>> handlers = new ConcurrentHashMap<>();
+  private final Map<Class<?>, LongAdder> counts = new ConcurrentHashMap<>();
+
+  @SuppressWarnings("unchecked")
+  public <P extends Packet> void on(Class<P> type, Handler<? super P> handler) {
+    this.handlers
+        .computeIfAbsent(type, k -> new CopyOnWriteArrayList<>())
+        .add((Handler<Packet>) handler);
+  }
+
+  @Override
+  public void packetReceived(Session session, Packet packet) {
+    this.counts.computeIfAbsent(packet.getClass(), k -> new LongAdder()).increment();
+
+    List<Handler<Packet>> typeHandlers = this.handlers.get(packet.getClass());
+    if (typeHandlers == null) {
+      return;
+    }
+
+    for (Handler<Packet> handler : typeHandlers) {
+      try {
+        handler.handle(session, packet);
+      } catch (Exception e) {
+        System.out.println(
+            "router: " + packet.getClass().getSimpleName() + " handler failed: " + e);
+      }
+    }
+  }
+
+  /** Packets received so far by type, most frequent first. */
+  public Map<String, Long> getPacketCounts() {
+    List<Map.Entry<Class<?>, LongAdder>> entries = new ArrayList<>(this.counts.entrySet());
+    entries.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+
+    Map<String, Long> packetCounts = new LinkedHashMap<>();
+    for (Map.Entry<Class<?>, LongAdder> entry : entries) {
+      packetCounts.put(entry.getKey().getSimpleName(), entry.getValue().sum());
+    }
+    return packetCounts;
+  }
+}
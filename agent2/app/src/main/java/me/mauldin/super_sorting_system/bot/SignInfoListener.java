@@ -1,14 +1,15 @@
 package me.mauldin.super_sorting_system.bot;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import me.mauldin.super_sorting_system.Operator;
 import me.mauldin.super_sorting_system.Operator.Agent;
+import me.mauldin.super_sorting_system.Operator.Dimension;
 import me.mauldin.super_sorting_system.Operator.Location;
 import me.mauldin.super_sorting_system.Operator.ScanRegion;
 import me.mauldin.super_sorting_system.Operator.Sign;
@@ -16,91 +17,114 @@ import me.mauldin.super_sorting_system.Operator.Vec2;
 import me.mauldin.super_sorting_system.Operator.Vec3;
 import org.cloudburstmc.nbt.NbtList;
 import org.cloudburstmc.nbt.NbtMap;
-import org.geysermc.mcprotocollib.network.Session;
-import org.geysermc.mcprotocollib.network.event.session.SessionAdapter;
-import org.geysermc.mcprotocollib.network.packet.Packet;
 import org.geysermc.mcprotocollib.protocol.data.game.level.block.BlockEntityInfo;
 import org.geysermc.mcprotocollib.protocol.data.game.level.block.BlockEntityType;
 import org.geysermc.mcprotocollib.protocol.packet.ingame.clientbound.level.ClientboundChunkBatchFinishedPacket;
 import org.geysermc.mcprotocollib.protocol.packet.ingame.clientbound.level.ClientboundLevelChunkWithLightPacket;
 import org.geysermc.mcprotocollib.protocol.packet.ingame.serverbound.level.ServerboundChunkBatchReceivedPacket;
 
-public class SignInfoListener extends SessionAdapter {
+public class SignInfoListener {
   private final Navigation navigation;
   private final Operator operator;
   private final Agent agent;
+  private final Mailbox mailbox;
   private List<ScanRegion> pendingRegions;
-  private final ScheduledExecutorService uploadScheduler;
-  private long chunkLastSeenAt = System.nanoTime();
+  private final ScheduledFuture<?> uploadTask;
+  private final AtomicBoolean uploadInFlight = new AtomicBoolean(false);
+  private volatile long chunkLastSeenAt = System.nanoTime();
 
-  public SignInfoListener(Navigation navigation, Operator operator, Agent agent) {
+  public SignInfoListener(
+      Navigation navigation,
+      Operator operator,
+      Agent agent,
+      Mailbox mailbox,
+      ScheduledExecutorService scheduler) {
     this.navigation = navigation;
     this.operator = operator;
     this.agent = agent;
+    this.mailbox = mailbox;
     this.pendingRegions = Collections.synchronizedList(new ArrayList());
-    this.uploadScheduler = Executors.newSingleThreadScheduledExecutor();
-    this.uploadScheduler.scheduleAtFixedRate(this::uploadSignData, 5, 5, TimeUnit.SECONDS);
+    this.uploadTask = scheduler.scheduleAtFixedRate(this::uploadSignData, 5, 5, TimeUnit.SECONDS);
   }
 
   public long getMsSinceLastChunk() {
     return (System.nanoTime() - this.chunkLastSeenAt) / 1000000;
   }
 
-  @Override
-  public void packetReceived(Session session, Packet packet) {
-    if (packet instanceof ClientboundLevelChunkWithLightPacket chunkPacket) {
-      int x = chunkPacket.getX() * 16;
-      int z = chunkPacket.getZ() * 16;
+  public void register(PacketRouter router) {
+    // On the mailbox behind any respawn before it, so signs are tagged with the dimension the chunk
+    // was sent for
+    router.on(
+        ClientboundLevelChunkWithLightPacket.class,
+        (session, packet) -> this.mailbox.post(() -> this.chunkReceived(packet)));
+    // Nowhere else uses chunk data, so handle this here
+    // The server won't send more chunks until we've acknowledged it
+    router.on(
+        ClientboundChunkBatchFinishedPacket.class,
+        (session, packet) -> session.send(new ServerboundChunkBatchReceivedPacket(5)));
+  }
 
-      List<Sign> signs = new ArrayList();
-      for (BlockEntityInfo entity : chunkPacket.getBlockEntities()) {
-        if (!(entity.getType() == BlockEntityType.SIGN
-            || entity.getType() == BlockEntityType.HANGING_SIGN)) {
-          continue;
-        }
+  private void chunkReceived(ClientboundLevelChunkWithLightPacket chunkPacket) {
+    int x = chunkPacket.getX() * 16;
+    int z = chunkPacket.getZ() * 16;
+    Dimension dimension = this.navigation.getOperatorDimension();
 
-        NbtMap data = entity.getNbt();
-        List<String> front = (NbtList<String>) ((NbtMap) data.get("front_text")).get("messages");
-        List<String> back = (NbtList<String>) ((NbtMap) data.get("back_text")).get("messages");
+    List<Sign> signs = new ArrayList();
+    for (BlockEntityInfo entity : chunkPacket.getBlockEntities()) {
+      if (!(entity.getType() == BlockEntityType.SIGN
+          || entity.getType() == BlockEntityType.HANGING_SIGN)) {
+        continue;
+      }
 
-        Vec3 vec3 = new Vec3(entity.getX() + x, entity.getY(), entity.getZ() + z);
-        Location loc = new Location(vec3, this.navigation.getOperatorDimension());
+      NbtMap data = entity.getNbt();
+      List<String> front = (NbtList<String>) ((NbtMap) data.get("front_text")).get("messages");
+      List<String> back = (NbtList<String>) ((NbtMap) data.get("back_text")).get("messages");
 
-        signs.add(new Sign(front, loc));
-        signs.add(new Sign(back, loc));
-      }
+      Vec3 vec3 = new Vec3(entity.getX() + x, entity.getY(), entity.getZ() + z);
+      Location loc = new Location(vec3, dimension);
 
-      Vec2[] bounds = {
-        new Vec2(x, z), new Vec2(x + 15, z + 15),
-      };
-      this.pendingRegions.add(
-          new ScanRegion(signs, bounds, this.navigation.getOperatorDimension()));
-      this.chunkLastSeenAt = System.nanoTime();
-    } else if (packet instanceof ClientboundChunkBatchFinishedPacket) {
-      // Nowhere else uses chunk data, so handle this here
-      // The server won't send more chunks until we've acknowledged it
-      session.send(new ServerboundChunkBatchReceivedPacket(5));
+      signs.add(new Sign(front, loc));
+      signs.add(new Sign(back, loc));
     }
+
+    Vec2[] bounds = {
+      new Vec2(x, z), new Vec2(x + 15, z + 15),
+    };
+    this.pendingRegions.add(new ScanRegion(signs, bounds, dimension));
+    this.chunkLastSeenAt = System.nanoTime();
   }
 
   private void uploadSignData() {
+    // Skip this tick if the last upload is still in flight, its regions would otherwise race it
+    if (!this.uploadInFlight.compareAndSet(false, true)) {
+      return;
+    }
+
+    List<ScanRegion> regions;
     synchronized (this.pendingRegions) {
-      if (this.pendingRegions.size() == 0) {
-        return;
-      }
+      regions = new ArrayList<>(this.pendingRegions);
+      this.pendingRegions.clear();
+    }
 
-      try {
-        this.operator.sendSignScanData(agent, this.pendingRegions);
-        this.pendingRegions.clear();
-      } catch (IOException e) {
-        System.out.println("Failed to upload sign data: " + e);
-      } catch (InterruptedException e) {
-        System.out.println("Failed to upload sign data: " + e);
-      }
+    if (regions.size() == 0) {
+      this.uploadInFlight.set(false);
+      return;
     }
+
+    // Uploads off the lock so incoming chunks aren't held up, requeueing the regions on failure
+    this.operator
+        .sendSignScanDataAsync(agent, regions)
+        .whenComplete(
+            (response, error) -> {
+              if (error != null) {
+                System.out.println("Failed to upload sign data: " + error);
+                this.pendingRegions.addAll(0, regions);
+              }
+              this.uploadInFlight.set(false);
+            });
   }
 
   public void shutdown() {
-    this.uploadScheduler.shutdown();
+    this.uploadTask.cancel(false);
   }
 }
@@ -0,0 +1,90 @@
+package me.mauldin.super_sorting_system.bot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import me.mauldin.super_sorting_system.Operator.Location;
+import me.mauldin.super_sorting_system.Operator.LocationTiming;
+import me.mauldin.super_sorting_system.Operator.TelemetryReport;
+import me.mauldin.super_sorting_system.Operator.TravelTiming;
+
+/**
+ * Times navigation legs, portal transitions, window opens and transfers, aggregating them until
+ * they are drained into a report for the operator.
+ */
+public class Telemetry {
+  // Sums over travel legs, enough for the operator to fit leg time against distance
+  private long legs;
+  private double blocks;
+  private double legMs;
+  private double blocksTimesMs;
+  private double blocksSquared;
+
+  private final Map<Location, LocationTiming> portals = new HashMap<>();
+  private final Map<Location, LocationTiming> windowOpens = new HashMap<>();
+
+  private long transfers;
+  private long transferMs;
+
+  public synchronized void recordTravel(double legBlocks, long ms) {
+    this.legs++;
+    this.blocks += legBlocks;
+    this.legMs += ms;
+    this.blocksTimesMs += legBlocks * ms;
+    this.blocksSquared += legBlocks * legBlocks;
+  }
+
+  // location is where the portal was entered from
+  public synchronized void recordPortal(Location location, long ms) {
+    record(this.portals, location, ms);
+  }
+
+  public synchronized void recordWindowOpen(Location location, long ms) {
+    record(this.windowOpens, location, ms);
+  }
+
+  public synchronized void recordTransfer(long ms) {
+    this.transfers++;
+    this.transferMs += ms;
+  }
+
+  /** Returns everything recorded since the last drain and starts over. */
+  public synchronized TelemetryReport drain() {
+    TelemetryReport report =
+        new TelemetryReport(
+            new TravelTiming(
+                this.legs, this.blocks, this.legMs, this.blocksTimesMs, this.blocksSquared),
+            new ArrayList<>(this.portals.values()),
+            new ArrayList<>(this.windowOpens.values()),
+            this.transfers,
+            this.transferMs);
+
+    this.legs = 0;
+    this.blocks = 0;
+    this.legMs = 0;
+    this.blocksTimesMs = 0;
+    this.blocksSquared = 0;
+    this.portals.clear();
+    this.windowOpens.clear();
+    this.transfers = 0;
+    this.transferMs = 0;
+
+    return report;
+  }
+
+  public synchronized boolean isEmpty() {
+    return this.legs == 0
+        && this.portals.isEmpty()
+        && this.windowOpens.isEmpty()
+        && this.transfers == 0;
+  }
+
+  private static void record(Map<Location, LocationTiming> timings, Location location, long ms) {
+    timings.merge(
+        location,
+        new LocationTiming(location, 1, ms),
+        (existing, added) ->
+            new LocationTiming(
+                location, existing.count() + added.count(), existing.totalMs() + added.totalMs()));
+  }
+}
@@ -0,0 +1,114 @@
+package me.mauldin.super_sorting_system.bot;
+
+/**
+ * Tracks the operation a bot is running. Waits in navigation, windows and operations go through it
+ * so they give up once their own step budget or the operation's deadline runs out, and check()
+ * cancels an operation that overran while stuck anywhere else. While the bot is reconnecting, waits
+ * hold until it is back in game.
+ */
+public class Watchdog {
+  // How long past its deadline an operation may go before check() interrupts it
+  private static final long GRACE_MS = 5000;
+
+  private final ConnectionState connection;
+  private volatile OperationContext current;
+
+  public Watchdog(ConnectionState connection) {
+    this.connection = connection;
+  }
+
+  public OperationContext begin(String description, long budgetMs) {
+    OperationContext context = new OperationContext(this, description, budgetMs);
+    this.current = context;
+    return context;
+  }
+
+  void ended(OperationContext context) {
+    if (this.current == context) {
+      this.current = null;
+    }
+  }
+
+  /** Throws if the current operation was cancelled or has run out of time. */
+  public void checkpoint() throws OperationCancelledException {
+    OperationContext context = this.current;
+    if (context != null) {
+      context.check();
+    }
+  }
+
+  /** Sleeps, cut short and failing if the current operation's deadline passes meanwhile. */
+  public void sleep(long ms) throws Exception {
+    this.connection.awaitOnline();
+    Thread.sleep(this.bounded(ms));
+    this.checkpoint();
+  }
+
+  /** Starts a wait that may take at most budgetMs, within the current operation's deadline. */
+  public Step step(String what, long budgetMs) {
+    return new Step(what, budgetMs);
+  }
+
+  /** Cancels the current operation if it is well past its deadline. Run periodically. */
+  public void check() {
+    OperationContext context = this.current;
+    if (context != null && context.overdueMs() > GRACE_MS) {
+      System.out.println(
+          "watchdog: " + context.getDescription() + " overran its deadline, cancelling");
+      context.cancel("cancelled by watchdog after overrunning its deadline");
+    }
+  }
+
+  // Checks the current operation and returns how long it may wait, at most ms
+  private long bounded(long ms) throws OperationCancelledException {
+    this.checkpoint();
+
+    OperationContext context = this.current;
+    if (context == null) {
+      return ms;
+    }
+    return Math.max(1, Math.min(ms, -context.overdueMs()));
+  }
+
+  public class Step {
+    private final String what;
+    private final long budgetMs;
+    private long deadlineNanos;
+    private long offlineMs = 0;
+
+    private Step(String what, long budgetMs) {
+      this.what = what;
+      this.budgetMs = budgetMs;
+      this.deadlineNanos = System.nanoTime() + budgetMs * 1000000;
+    }
+
+    /** Pauses between polls of the wait. Time spent offline doesn't count against the step. */
+    public void pause(long ms) throws Exception {
+      this.awaitOnline();
+      Thread.sleep(this.allow(ms));
+    }
+
+    /** Holds while the bot is reconnecting, giving the step back the time spent offline. */
+    public void awaitOnline() throws InterruptedException {
+      long offlineMs = connection.awaitOnline();
+      this.offlineMs += offlineMs;
+      this.deadlineNanos += offlineMs * 1000000;
+    }
+
+    /** How long the step has spent waiting for a reconnect, to leave out of its timing. */
+    public long getOfflineMs() {
+      return this.offlineMs;
+    }
+
+    /** Fails once the step or operation is out of time, else returns how long to wait next. */
+    public long allow(long ms) throws OperationCancelledException {
+      long remainingMs = (this.deadlineNanos - System.nanoTime()) / 1000000;
+      if (remainingMs <= 0) {
+        throw new OperationCancelledException(
+            this.what + " took longer than " + this.budgetMs + "ms");
+      }
+
+      return bounded(Math.min(ms, remainingMs));
+    }
+  }
+}
@@ -32,7 +32,7 @@ public class WorldInteractions {
             false,
             1));
 
-    bot.inventoryTracker.getPlayerInventory()[hotbarSlot + 27] = null;
+    bot.inventoryTracker.clearPlayerSlot(hotbarSlot + 27);
   }
 
   public static void pushButtonAt(Bot bot, int x, int y, int z) {
@@ -0,0 +1,130 @@
+package me.mauldin.super_sorting_system.bot.operations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import me.mauldin.super_sorting_system.Operator.DropItemsOperationKind;
+import me.mauldin.super_sorting_system.Operator.Hold;
+import me.mauldin.super_sorting_system.Operator.Location;
+import me.mauldin.super_sorting_system.Operator.MoveItemsOperationKind;
+import me.mauldin.super_sorting_system.Operator.Operation;
+import me.mauldin.super_sorting_system.Operator.OperationKind;
+import me.mauldin.super_sorting_system.Operator.Vec3;
+import me.mauldin.super_sorting_system.bot.Bot;
+import me.mauldin.super_sorting_system.bot.InventoryUtil;
+
+/**
+ * Carries out several MoveItems and DropItems operations in one trip. Each operation gets its own
+ * range of player inventory slots, every source is picked up with each chest opened once, then the
+ * items are delivered or dropped.
+ */
+public class BatchedTrip {
+  private record Transfer(Hold hold, int invSlot, int count) {}
+
+  public static void execute(Bot bot, List<Operation> operations) throws Exception {
+    List<String> holdIds = new ArrayList<>();
+    for (Operation operation : operations) {
+      OperationKind kind = operation.getKind();
+      if (kind instanceof MoveItemsOperationKind moveItems) {
+        holdIds.addAll(Arrays.asList(moveItems.getSourceHolds()));
+        holdIds.addAll(Arrays.asList(moveItems.getDestinationHolds()));
+      } else if (kind instanceof DropItemsOperationKind dropItems) {
+        holdIds.addAll(Arrays.asList(dropItems.getSourceHolds()));
+      } else {
+        throw new Exception("operation " + operation.getId() + " can't be batched");
+      }
+    }
+
+    List<Hold> holds = bot.operator.getHolds(holdIds, bot.agent);
+
+    List<Transfer> pickups = new ArrayList<>();
+    List<Transfer> deliveries = new ArrayList<>();
+    List<DropItemsOperationKind> drops = new ArrayList<>();
+    List<int[]> dropSlots = new ArrayList<>();
+
+    int nextHold = 0;
+    int nextSlot = 0;
+    for (Operation operation : operations) {
+      OperationKind kind = operation.getKind();
+      if (kind instanceof MoveItemsOperationKind moveItems) {
+        int[] counts = moveItems.getCounts();
+        int sourceCount = moveItems.getSourceHolds().length;
+
+        for (int i = 0; i < sourceCount; i++) {
+          pickups.add(new Transfer(holds.get(nextHold + i), nextSlot + i, counts[i]));
+          deliveries.add(
+              new Transfer(holds.get(nextHold + sourceCount + i), nextSlot + i, counts[i]));
+        }
+
+        nextHold += sourceCount + moveItems.getDestinationHolds().length;
+        nextSlot += sourceCount;
+      } else if (kind instanceof DropItemsOperationKind dropItems) {
+        int sourceCount = dropItems.getSourceHolds().length;
+
+        // Drops take the whole stack in the held slot
+        for (int i = 0; i < sourceCount; i++) {
+          pickups.add(new Transfer(holds.get(nextHold + i), nextSlot + i, Integer.MAX_VALUE));
+        }
+
+        drops.add(dropItems);
+        dropSlots.add(new int[] {nextSlot, nextSlot + sourceCount});
+
+        nextHold += sourceCount;
+        nextSlot += sourceCount;
+      }
+    }
+
+    if (nextSlot > 36) {
+      throw new Exception("batched operations need " + nextSlot + " inventory slots");
+    }
+
+    visitChests(bot, pickups, false);
+    visitChests(bot, deliveries, true);
+
+    for (int i = 0; i < drops.size(); i++) {
+      DropItemsOperationKind dropItems = drops.get(i);
+      Location dropFrom = dropItems.getDropFrom();
+      Vec3 dropVec = dropFrom.vec3();
+      Vec3 aimTowards = dropItems.getAimTowards();
+
+      bot.navigation.navigateTo(dropVec.x(), dropVec.y(), dropVec.z(), dropFrom.dim());
+      bot.navigation.lookTowards(aimTowards.x(), aimTowards.y(), aimTowards.z());
+
+      for (int invSlot = dropSlots.get(i)[0]; invSlot < dropSlots.get(i)[1]; invSlot++) {
+        bot.inventoryTracker.dropItems(invSlot);
+      }
+    }
+  }
+
+  // Opens each chest once, in the order it is first needed, and makes all of its transfers
+  private static void visitChests(Bot bot, List<Transfer> transfers, boolean toChest)
+      throws Exception {
+    Map<Location, List<Transfer>> byChest = new LinkedHashMap<>();
+    for (Transfer transfer : transfers) {
+      byChest.computeIfAbsent(transfer.hold().location(), k -> new ArrayList<>()).add(transfer);
+    }
+
+    for (List<Transfer> chestTransfers : byChest.values()) {
+      Hold first = chestTransfers.get(0).hold();
+      Location holdLocation = first.location();
+      Vec3 holdOpenFrom = first.openFrom();
+
+      bot.navigation.navigateTo(
+          holdOpenFrom.x(), holdOpenFrom.y(), holdOpenFrom.z(), holdLocation.dim());
+      bot.inventoryTracker.openWindowAt(
+          holdLocation.vec3().x(), holdLocation.vec3().y(), holdLocation.vec3().z());
+
+      List<String> fulfilledHolds = new ArrayList<>();
+      for (Transfer transfer : chestTransfers) {
+        bot.inventoryTracker.transferItems(
+            transfer.invSlot(), transfer.hold().slot(), transfer.count(), toChest);
+        fulfilledHolds.add(transfer.hold().id());
+      }
+
+      InventoryUtil.uploadInventoryData(bot, holdLocation, holdOpenFrom, fulfilledHolds);
+      bot.inventoryTracker.closeWindow();
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package me.mauldin.super_sorting_system.bot.operations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import me.mauldin.super_sorting_system.Operator.DropItemsOperationKind;
 import me.mauldin.super_sorting_system.Operator.Hold;
@@ -10,45 +11,50 @@ import me.mauldin.super_sorting_system.bot.Bot;
 import me.mauldin.super_sorting_system.bot.InventoryUtil;
 
 public class DropItems {
-  public static void execute(Bot bot, DropItemsOperationKind op) throws Exception {
+  public static void execute(Bot bot, DropItemsOperationKind op, Integer[] carriedSources)
+      throws Exception {
     String[] sourceHolds = op.getSourceHolds();
     Location dropFrom = op.getDropFrom();
     Vec3 aimTowards = op.getAimTowards();
+    int[] invSlots = InventoryUtil.allocateSlots(bot, sourceHolds.length, carriedSources);
 
     // Get source holds
-    List<Hold> sourceHoldsList = new ArrayList<>();
-    for (String holdId : sourceHolds) {
-      Hold hold = bot.operator.getHold(holdId, bot.agent);
-      sourceHoldsList.add(hold);
-    }
+    List<Hold> sourceHoldsList = bot.operator.getHolds(Arrays.asList(sourceHolds), bot.agent);
 
     Location lastChestLocation = null;
     Vec3 lastChestOpenFrom = null;
     boolean isChestOpen = false;
+    // Holds done with in the open chest, reported with its upload
+    List<String> fulfilledHolds = new ArrayList<>();
 
     // Process source holds - take items from chests to player inventory
-    for (int invSlot = 0; invSlot < sourceHoldsList.size(); invSlot++) {
-      Hold hold = sourceHoldsList.get(invSlot);
-      Location holdLocation = hold.getLocation();
-      Vec3 holdOpenFrom = hold.getOpenFrom();
+    for (int i = 0; i < sourceHoldsList.size(); i++) {
+      // Already carrying these items
+      if (carriedSources != null && carriedSources[i] != null) {
+        continue;
+      }
+
+      Hold hold = sourceHoldsList.get(i);
+      Location holdLocation = hold.location();
+      Vec3 holdOpenFrom = hold.openFrom();
 
       // If we need to open a different chest, close current and open new one
-      if (lastChestLocation == null || !locationEquals(holdLocation, lastChestLocation)) {
+      if (!holdLocation.equals(lastChestLocation)) {
         if (isChestOpen) {
-          InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
+          InventoryUtil.uploadInventoryData(
+              bot, lastChestLocation, lastChestOpenFrom, fulfilledHolds);
+          fulfilledHolds.clear();
           bot.inventoryTracker.closeWindow();
           isChestOpen = false;
         }
 
         // Navigate to the chest opening position
         bot.navigation.navigateTo(
-            holdOpenFrom.getX(), holdOpenFrom.getY(), holdOpenFrom.getZ(), holdLocation.getDim());
+            holdOpenFrom.x(), holdOpenFrom.y(), holdOpenFrom.z(), holdLocation.dim());
 
         // Open the chest
         bot.inventoryTracker.openWindowAt(
-            holdLocation.getVec3().getX(),
-            holdLocation.getVec3().getY(),
-            holdLocation.getVec3().getZ());
+            holdLocation.vec3().x(), holdLocation.vec3().y(), holdLocation.vec3().z());
 
         isChestOpen = true;
         lastChestLocation = holdLocation;
@@ -57,37 +63,26 @@ public class DropItems {
 
       // Transfer all items from chest slot to player inventory slot
       // Using Integer.MAX_VALUE to transfer the entire stack
-      bot.inventoryTracker.transferItems(invSlot, hold.getSlot(), Integer.MAX_VALUE, false);
+      bot.inventoryTracker.transferItems(invSlots[i], hold.slot(), Integer.MAX_VALUE, false);
+      fulfilledHolds.add(hold.id());
     }
 
     // Close the final chest if one is open
     if (isChestOpen) {
-      InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
+      InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom, fulfilledHolds);
       bot.inventoryTracker.closeWindow();
     }
 
     // Navigate to drop position
-    Vec3 dropVec = dropFrom.getVec3();
-    bot.navigation.navigateTo(dropVec.getX(), dropVec.getY(), dropVec.getZ(), dropFrom.getDim());
+    Vec3 dropVec = dropFrom.vec3();
+    bot.navigation.navigateTo(dropVec.x(), dropVec.y(), dropVec.z(), dropFrom.dim());
 
     // Look towards the aim target
-    bot.navigation.lookTowards(aimTowards.getX(), aimTowards.getY(), aimTowards.getZ());
+    bot.navigation.lookTowards(aimTowards.x(), aimTowards.y(), aimTowards.z());
 
     // Drop items from player inventory slots
-    for (int invSlot = 0; invSlot < sourceHolds.length; invSlot++) {
+    for (int invSlot : invSlots) {
       bot.inventoryTracker.dropItems(invSlot);
     }
   }
-
-  private static boolean locationEquals(Location loc1, Location loc2) {
-    if (loc1 == null || loc2 == null) {
-      return false;
-    }
-    Vec3 vec1 = loc1.getVec3();
-    Vec3 vec2 = loc2.getVec3();
-    return vec1.getX() == vec2.getX()
-        && vec1.getY() == vec2.getY()
-        && vec1.getZ() == vec2.getZ()
-        && loc1.getDim().equals(loc2.getDim());
-  }
 }
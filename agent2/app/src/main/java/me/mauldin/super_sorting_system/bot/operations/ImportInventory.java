@@ -1,6 +1,7 @@
 package me.mauldin.super_sorting_system.bot.operations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import me.mauldin.super_sorting_system.Operator.Hold;
 import me.mauldin.super_sorting_system.Operator.ImportInventoryOperationKind;
@@ -17,13 +18,11 @@ public class ImportInventory {
     String[] destinationHolds = op.getDestinationHolds();
 
     // Navigate to the node location
-    Vec3 nodeVec = nodeLocation.getVec3();
-    bot.navigation.navigateTo(
-        nodeVec.getX(), nodeVec.getY(), nodeVec.getZ(), nodeLocation.getDim());
+    Vec3 nodeVec = nodeLocation.vec3();
+    bot.navigation.navigateTo(nodeVec.x(), nodeVec.y(), nodeVec.z(), nodeLocation.dim());
 
     // Open the source chest
-    bot.inventoryTracker.openWindowAt(
-        chestLocation.getX(), chestLocation.getY(), chestLocation.getZ());
+    bot.inventoryTracker.openWindowAt(chestLocation.x(), chestLocation.y(), chestLocation.z());
 
     // Get all items from the source chest
     ItemStack[] containerInventory = bot.inventoryTracker.getContainerInventory();
@@ -53,39 +52,39 @@ public class ImportInventory {
     bot.inventoryTracker.closeWindow();
 
     // Get destination holds
-    List<Hold> destinationHoldsList = new ArrayList<>();
-    for (int i = 0; i < takenItemsCount; i++) {
-      Hold hold = bot.operator.getHold(destinationHolds[i], bot.agent);
-      destinationHoldsList.add(hold);
-    }
+    List<Hold> destinationHoldsList =
+        bot.operator.getHolds(
+            Arrays.asList(destinationHolds).subList(0, takenItemsCount), bot.agent);
 
     Location lastChestLocation = null;
     Vec3 lastChestOpenFrom = null;
     boolean isChestOpen = false;
+    // Holds done with in the open chest, reported with its upload
+    List<String> fulfilledHolds = new ArrayList<>();
 
     // Transfer items from player inventory to destination chests
     for (int i = 0; i < takenItemsCount; i++) {
       Hold hold = destinationHoldsList.get(i);
-      Location holdLocation = hold.getLocation();
-      Vec3 holdOpenFrom = hold.getOpenFrom();
+      Location holdLocation = hold.location();
+      Vec3 holdOpenFrom = hold.openFrom();
 
       // If we need to open a different chest, close current and open new one
-      if (lastChestLocation == null || !locationEquals(holdLocation, lastChestLocation)) {
+      if (!holdLocation.equals(lastChestLocation)) {
         if (isChestOpen) {
-          InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
+          InventoryUtil.uploadInventoryData(
+              bot, lastChestLocation, lastChestOpenFrom, fulfilledHolds);
+          fulfilledHolds.clear();
           bot.inventoryTracker.closeWindow();
           isChestOpen = false;
         }
 
         // Navigate to the chest opening position
         bot.navigation.navigateTo(
-            holdOpenFrom.getX(), holdOpenFrom.getY(), holdOpenFrom.getZ(), holdLocation.getDim());
+            holdOpenFrom.x(), holdOpenFrom.y(), holdOpenFrom.z(), holdLocation.dim());
 
         // Open the destination chest
         bot.inventoryTracker.openWindowAt(
-            holdLocation.getVec3().getX(),
-            holdLocation.getVec3().getY(),
-            holdLocation.getVec3().getZ());
+            holdLocation.vec3().x(), holdLocation.vec3().y(), holdLocation.vec3().z());
 
         isChestOpen = true;
         lastChestLocation = holdLocation;
@@ -93,25 +92,14 @@ public class ImportInventory {
       }
 
       // Transfer entire stack from player inventory to chest
-      bot.inventoryTracker.transferItems(i, hold.getSlot(), Integer.MAX_VALUE, true);
+      bot.inventoryTracker.transferItems(i, hold.slot(), Integer.MAX_VALUE, true);
+      fulfilledHolds.add(hold.id());
     }
 
     // Close the final chest if one is open
     if (isChestOpen) {
-      InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
+      InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom, fulfilledHolds);
       bot.inventoryTracker.closeWindow();
     }
   }
-
-  private static boolean locationEquals(Location loc1, Location loc2) {
-    if (loc1 == null || loc2 == null) {
-      return false;
-    }
-    Vec3 vec1 = loc1.getVec3();
-    Vec3 vec2 = loc2.getVec3();
-    return vec1.getX() == vec2.getX()
-        && vec1.getY() == vec2.getY()
-        && vec1.getZ() == vec2.getZ()
-        && loc1.getDim().equals(loc2.getDim());
-  }
 }
@@ -14,22 +14,24 @@ public class LoadShulker {
     String shulkerHold = op.getShulkerHold();
     String[] sourceHolds = op.getSourceHolds();
 
-    // Get shulker hold information
-    Hold shulkerHoldData = bot.operator.getHold(shulkerHold, bot.agent);
-    Location shulkerChestLocation = shulkerHoldData.getLocation();
-    int shulkerChestSlot = shulkerHoldData.getSlot();
-    Vec3 shulkerOpenFrom = shulkerHoldData.getOpenFrom();
+    // Get shulker and source hold information in one request
+    String[] holdIds = new String[sourceHolds.length + 1];
+    holdIds[0] = shulkerHold;
+    System.arraycopy(sourceHolds, 0, holdIds, 1, sourceHolds.length);
+    Hold[] holds = InventoryUtil.resolveHolds(bot, holdIds);
+
+    Hold shulkerHoldData = holds[0];
+    Location shulkerChestLocation = shulkerHoldData.location();
+    int shulkerChestSlot = shulkerHoldData.slot();
+    Vec3 shulkerOpenFrom = shulkerHoldData.openFrom();
 
     // Grab Shulker from chest
     bot.navigation.navigateTo(
-        shulkerOpenFrom.getX(),
-        shulkerOpenFrom.getY(),
-        shulkerOpenFrom.getZ(),
-        shulkerChestLocation.getDim());
+        shulkerOpenFrom.x(), shulkerOpenFrom.y(), shulkerOpenFrom.z(), shulkerChestLocation.dim());
     bot.inventoryTracker.openWindowAt(
-        shulkerChestLocation.getVec3().getX(),
-        shulkerChestLocation.getVec3().getY(),
-        shulkerChestLocation.getVec3().getZ());
+        shulkerChestLocation.vec3().x(),
+        shulkerChestLocation.vec3().y(),
+        shulkerChestLocation.vec3().z());
 
     // Transfer shulker from chest to player slot 27 (first hotbar slot)
     bot.inventoryTracker.transferItems(27, shulkerChestSlot, 1, false);
@@ -47,13 +49,13 @@ public class LoadShulker {
       if (sourceHolds[invSlot] == null) continue;
 
       // Get source hold information
-      Hold sourceHold = bot.operator.getHold(sourceHolds[invSlot], bot.agent);
-      Location sourceLocation = sourceHold.getLocation();
-      int sourceSlot = sourceHold.getSlot();
-      Vec3 sourceOpenFrom = sourceHold.getOpenFrom();
+      Hold sourceHold = holds[invSlot + 1];
+      Location sourceLocation = sourceHold.location();
+      int sourceSlot = sourceHold.slot();
+      Vec3 sourceOpenFrom = sourceHold.openFrom();
 
       // If we need to open a different chest, close current and open new one
-      if (!locationEquals(sourceLocation, lastChestLocation)) {
+      if (!sourceLocation.equals(lastChestLocation)) {
         if (isChestOpen) {
           InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
           bot.inventoryTracker.closeWindow();
@@ -62,16 +64,11 @@ public class LoadShulker {
 
         // Navigate to the chest opening position
         bot.navigation.navigateTo(
-            sourceOpenFrom.getX(),
-            sourceOpenFrom.getY(),
-            sourceOpenFrom.getZ(),
-            sourceLocation.getDim());
+            sourceOpenFrom.x(), sourceOpenFrom.y(), sourceOpenFrom.z(), sourceLocation.dim());
 
         // Open the chest
         bot.inventoryTracker.openWindowAt(
-            sourceLocation.getVec3().getX(),
-            sourceLocation.getVec3().getY(),
-            sourceLocation.getVec3().getZ());
+            sourceLocation.vec3().x(), sourceLocation.vec3().y(), sourceLocation.vec3().z());
 
         isChestOpen = true;
         lastChestLocation = sourceLocation;
@@ -89,19 +86,18 @@ public class LoadShulker {
     }
 
     // Navigate to shulker station and place shulker
-    Vec3 stationVec = shulkerStationLocation.getVec3();
+    Vec3 stationVec = shulkerStationLocation.vec3();
     bot.navigation.navigateTo(
-        stationVec.getX(), stationVec.getY(), stationVec.getZ(), shulkerStationLocation.getDim());
+        stationVec.x(), stationVec.y(), stationVec.z(), shulkerStationLocation.dim());
 
     // Place shulker block using WorldInteractions
-    WorldInteractions.placeBlockAt(
-        bot, 0, stationVec.getX(), stationVec.getY() + 2, stationVec.getZ());
+    WorldInteractions.placeBlockAt(bot, 0, stationVec.x(), stationVec.y() + 2, stationVec.z());
 
     // Wait for placement to complete
-    Thread.sleep(250);
+    bot.watchdog.sleep(250);
 
     // Open the placed shulker
-    bot.inventoryTracker.openWindowAt(stationVec.getX(), stationVec.getY() + 2, stationVec.getZ());
+    bot.inventoryTracker.openWindowAt(stationVec.x(), stationVec.y() + 2, stationVec.z());
 
     // Transfer items from player inventory to shulker
     for (int playerSlot = 0; playerSlot < 27; playerSlot++) {
@@ -115,15 +111,14 @@ public class LoadShulker {
     bot.inventoryTracker.closeWindow();
 
     // Break shulker using button (piston mechanism)
-    WorldInteractions.pushButtonAt(
-        bot, stationVec.getX(), stationVec.getY() + 4, stationVec.getZ());
+    WorldInteractions.pushButtonAt(bot, stationVec.x(), stationVec.y() + 4, stationVec.z());
 
     // Wait for piston to fully retract and shulker to be collected
-    Thread.sleep(250);
+    bot.watchdog.sleep(250);
 
     // Wait for shulker to appear in inventory (hotbar slot 0)
     for (int attempts = 0; attempts < 100; attempts++) {
-      Thread.sleep(50);
+      bot.watchdog.sleep(50);
       // The shulker should appear in the player's hotbar slot 0
       if (bot.inventoryTracker.getPlayerInventory()[27] != null) {
         break;
@@ -136,14 +131,11 @@ public class LoadShulker {
 
     // Put shulker back in its storage slot
     bot.navigation.navigateTo(
-        shulkerOpenFrom.getX(),
-        shulkerOpenFrom.getY(),
-        shulkerOpenFrom.getZ(),
-        shulkerChestLocation.getDim());
+        shulkerOpenFrom.x(), shulkerOpenFrom.y(), shulkerOpenFrom.z(), shulkerChestLocation.dim());
     bot.inventoryTracker.openWindowAt(
-        shulkerChestLocation.getVec3().getX(),
-        shulkerChestLocation.getVec3().getY(),
-        shulkerChestLocation.getVec3().getZ());
+        shulkerChestLocation.vec3().x(),
+        shulkerChestLocation.vec3().y(),
+        shulkerChestLocation.vec3().z());
 
     // Transfer shulker back to chest
     bot.inventoryTracker.transferItems(27, shulkerChestSlot, 1, true);
@@ -152,16 +144,4 @@ public class LoadShulker {
     InventoryUtil.uploadInventoryData(bot, shulkerChestLocation, shulkerOpenFrom);
     bot.inventoryTracker.closeWindow();
   }
-
-  private static boolean locationEquals(Location loc1, Location loc2) {
-    if (loc1 == null || loc2 == null) {
-      return false;
-    }
-    Vec3 vec1 = loc1.getVec3();
-    Vec3 vec2 = loc2.getVec3();
-    return vec1.getX() == vec2.getX()
-        && vec1.getY() == vec2.getY()
-        && vec1.getZ() == vec2.getZ()
-        && loc1.getDim().equals(loc2.getDim());
-  }
 }
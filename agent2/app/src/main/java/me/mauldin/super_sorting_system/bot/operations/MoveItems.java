@@ -1,6 +1,7 @@
 package me.mauldin.super_sorting_system.bot.operations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import me.mauldin.super_sorting_system.Operator.Hold;
 import me.mauldin.super_sorting_system.Operator.Location;
@@ -10,52 +11,55 @@ import me.mauldin.super_sorting_system.bot.Bot;
 import me.mauldin.super_sorting_system.bot.InventoryUtil;
 
 public class MoveItems {
-  public static void execute(Bot bot, MoveItemsOperationKind op) throws Exception {
+  public static void execute(Bot bot, MoveItemsOperationKind op, Integer[] carriedSources)
+      throws Exception {
     String[] sourceHolds = op.getSourceHolds();
     String[] destinationHolds = op.getDestinationHolds();
     int[] counts = op.getCounts();
+    int[] invSlots = InventoryUtil.allocateSlots(bot, sourceHolds.length, carriedSources);
 
-    // Get source holds
-    List<Hold> sourceHoldsList = new ArrayList<>();
-    for (String holdId : sourceHolds) {
-      Hold hold = bot.operator.getHold(holdId, bot.agent);
-      sourceHoldsList.add(hold);
-    }
+    // Get source and destination holds together
+    List<String> holdIds = new ArrayList<>(Arrays.asList(sourceHolds));
+    holdIds.addAll(Arrays.asList(destinationHolds));
+    List<Hold> holds = bot.operator.getHolds(holdIds, bot.agent);
 
-    // Get destination holds
-    List<Hold> destinationHoldsList = new ArrayList<>();
-    for (String holdId : destinationHolds) {
-      Hold hold = bot.operator.getHold(holdId, bot.agent);
-      destinationHoldsList.add(hold);
-    }
+    List<Hold> sourceHoldsList = holds.subList(0, sourceHolds.length);
+    List<Hold> destinationHoldsList = holds.subList(sourceHolds.length, holds.size());
 
     Location lastChestLocation = null;
     Vec3 lastChestOpenFrom = null;
     boolean isChestOpen = false;
+    // Holds done with in the open chest, reported with its upload
+    List<String> fulfilledHolds = new ArrayList<>();
 
     // Process source holds - take items from chests to player inventory
     for (int i = 0; i < sourceHoldsList.size(); i++) {
+      // Already carrying these items
+      if (carriedSources != null && carriedSources[i] != null) {
+        continue;
+      }
+
       Hold hold = sourceHoldsList.get(i);
-      Location holdLocation = hold.getLocation();
-      Vec3 holdOpenFrom = hold.getOpenFrom();
+      Location holdLocation = hold.location();
+      Vec3 holdOpenFrom = hold.openFrom();
 
       // If we need to open a different chest, close current and open new one
-      if (lastChestLocation == null || !locationEquals(holdLocation, lastChestLocation)) {
+      if (!holdLocation.equals(lastChestLocation)) {
         if (isChestOpen) {
-          InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
+          InventoryUtil.uploadInventoryData(
+              bot, lastChestLocation, lastChestOpenFrom, fulfilledHolds);
+          fulfilledHolds.clear();
           bot.inventoryTracker.closeWindow();
           isChestOpen = false;
         }
 
         // Navigate to the chest opening position
         bot.navigation.navigateTo(
-            holdOpenFrom.getX(), holdOpenFrom.getY(), holdOpenFrom.getZ(), holdLocation.getDim());
+            holdOpenFrom.x(), holdOpenFrom.y(), holdOpenFrom.z(), holdLocation.dim());
 
         // Open the chest
         bot.inventoryTracker.openWindowAt(
-            holdLocation.getVec3().getX(),
-            holdLocation.getVec3().getY(),
-            holdLocation.getVec3().getZ());
+            holdLocation.vec3().x(), holdLocation.vec3().y(), holdLocation.vec3().z());
 
         isChestOpen = true;
         lastChestLocation = holdLocation;
@@ -63,32 +67,33 @@ public class MoveItems {
       }
 
       // Transfer items from chest to player inventory
-      bot.inventoryTracker.transferItems(i, hold.getSlot(), counts[i], false);
+      bot.inventoryTracker.transferItems(invSlots[i], hold.slot(), counts[i], false);
+      fulfilledHolds.add(hold.id());
     }
 
     // Process destination holds - put items from player inventory to chests
     for (int i = 0; i < destinationHoldsList.size(); i++) {
       Hold hold = destinationHoldsList.get(i);
-      Location holdLocation = hold.getLocation();
-      Vec3 holdOpenFrom = hold.getOpenFrom();
+      Location holdLocation = hold.location();
+      Vec3 holdOpenFrom = hold.openFrom();
 
       // If we need to open a different chest, close current and open new one
-      if (!locationEquals(holdLocation, lastChestLocation)) {
+      if (!holdLocation.equals(lastChestLocation)) {
         if (isChestOpen) {
-          InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
+          InventoryUtil.uploadInventoryData(
+              bot, lastChestLocation, lastChestOpenFrom, fulfilledHolds);
+          fulfilledHolds.clear();
           bot.inventoryTracker.closeWindow();
           isChestOpen = false;
         }
 
         // Navigate to the chest opening position
         bot.navigation.navigateTo(
-            holdOpenFrom.getX(), holdOpenFrom.getY(), holdOpenFrom.getZ(), holdLocation.getDim());
+            holdOpenFrom.x(), holdOpenFrom.y(), holdOpenFrom.z(), holdLocation.dim());
 
         // Open the chest
         bot.inventoryTracker.openWindowAt(
-            holdLocation.getVec3().getX(),
-            holdLocation.getVec3().getY(),
-            holdLocation.getVec3().getZ());
+            holdLocation.vec3().x(), holdLocation.vec3().y(), holdLocation.vec3().z());
 
         isChestOpen = true;
         lastChestLocation = holdLocation;
@@ -96,25 +101,14 @@ public class MoveItems {
       }
 
       // Transfer items from player inventory to chest
-      bot.inventoryTracker.transferItems(i, hold.getSlot(), counts[i], true);
+      bot.inventoryTracker.transferItems(invSlots[i], hold.slot(), counts[i], true);
+      fulfilledHolds.add(hold.id());
     }
 
     // Close the final chest if one is open
     if (isChestOpen) {
-      InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
+      InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom, fulfilledHolds);
       bot.inventoryTracker.closeWindow();
     }
   }
-
-  private static boolean locationEquals(Location loc1, Location loc2) {
-    if (loc1 == null || loc2 == null) {
-      return false;
-    }
-    Vec3 vec1 = loc1.getVec3();
-    Vec3 vec2 = loc2.getVec3();
-    return vec1.getX() == vec2.getX()
-        && vec1.getY() == vec2.getY()
-        && vec1.getZ() == vec2.getZ()
-        && loc1.getDim().equals(loc2.getDim());
-  }
 }
@@ -9,14 +9,12 @@ import me.mauldin.super_sorting_system.bot.InventoryUtil;
 public class ScanInventory {
   public static void execute(Bot bot, ScanInventoryOperationKind op) throws Exception {
     Location loc = op.getLocation();
-    Vec3 inventoryVec = loc.getVec3();
+    Vec3 inventoryVec = loc.vec3();
     Vec3 openFromVec = op.getOpenFrom();
 
-    bot.navigation.navigateTo(
-        openFromVec.getX(), openFromVec.getY(), openFromVec.getZ(), loc.getDim());
+    bot.navigation.navigateTo(openFromVec.x(), openFromVec.y(), openFromVec.z(), loc.dim());
 
-    bot.inventoryTracker.openWindowAt(
-        inventoryVec.getX(), inventoryVec.getY(), inventoryVec.getZ());
+    bot.inventoryTracker.openWindowAt(inventoryVec.x(), inventoryVec.y(), inventoryVec.z());
 
     InventoryUtil.uploadInventoryData(bot, loc, openFromVec);
 
@@ -5,6 +5,7 @@ import me.mauldin.super_sorting_system.Operator.Location;
 import me.mauldin.super_sorting_system.Operator.ScanSignsOperationKind;
 import me.mauldin.super_sorting_system.Operator.Vec3;
 import me.mauldin.super_sorting_system.bot.Bot;
+import me.mauldin.super_sorting_system.bot.Watchdog;
 import org.geysermc.mcprotocollib.protocol.data.game.entity.player.HandPreference;
 import org.geysermc.mcprotocollib.protocol.data.game.setting.ChatVisibility;
 import org.geysermc.mcprotocollib.protocol.data.game.setting.ParticleStatus;
@@ -13,12 +14,12 @@ import org.geysermc.mcprotocollib.protocol.packet.common.serverbound.Serverbound
 public class ScanSigns {
   public static void execute(Bot bot, ScanSignsOperationKind op) throws Exception {
     Location loc = op.getLocation();
-    Vec3 vec = loc.getVec3();
-    bot.navigation.navigateTo(vec.getX(), vec.getY(), vec.getZ(), loc.getDim());
+    Vec3 vec = loc.vec3();
+    bot.navigation.navigateTo(vec.x(), vec.y(), vec.z(), loc.dim());
 
     Vec3 portalVec = op.getTakePortal();
     if (portalVec != null) {
-      bot.navigation.takePortal(portalVec.getX(), portalVec.getY(), portalVec.getZ());
+      bot.navigation.takePortal(portalVec.x(), portalVec.y(), portalVec.z());
     }
 
     bot.client.send(
@@ -33,9 +34,10 @@ public class ScanSigns {
             true,
             ParticleStatus.ALL));
 
-    Thread.sleep(1000);
+    bot.watchdog.sleep(1000);
+    Watchdog.Step chunksSettle = bot.watchdog.step("scan: waiting for chunks to settle", 60000);
     while (bot.signInfo.getMsSinceLastChunk() < 1000) {
-      Thread.sleep(500);
+      chunksSettle.pause(500);
     }
 
     bot.client.send(
@@ -14,22 +14,24 @@ public class UnloadShulker {
     String shulkerHold = op.getShulkerHold();
     String[] destinationHolds = op.getDestinationHolds();
 
-    // Get shulker hold information
-    Hold shulkerHoldData = bot.operator.getHold(shulkerHold, bot.agent);
-    Location shulkerChestLocation = shulkerHoldData.getLocation();
-    int shulkerChestSlot = shulkerHoldData.getSlot();
-    Vec3 shulkerOpenFrom = shulkerHoldData.getOpenFrom();
+    // Get shulker and destination hold information in one request
+    String[] holdIds = new String[destinationHolds.length + 1];
+    holdIds[0] = shulkerHold;
+    System.arraycopy(destinationHolds, 0, holdIds, 1, destinationHolds.length);
+    Hold[] holds = InventoryUtil.resolveHolds(bot, holdIds);
+
+    Hold shulkerHoldData = holds[0];
+    Location shulkerChestLocation = shulkerHoldData.location();
+    int shulkerChestSlot = shulkerHoldData.slot();
+    Vec3 shulkerOpenFrom = shulkerHoldData.openFrom();
 
     // Grab Shulker from chest
     bot.navigation.navigateTo(
-        shulkerOpenFrom.getX(),
-        shulkerOpenFrom.getY(),
-        shulkerOpenFrom.getZ(),
-        shulkerChestLocation.getDim());
+        shulkerOpenFrom.x(), shulkerOpenFrom.y(), shulkerOpenFrom.z(), shulkerChestLocation.dim());
     bot.inventoryTracker.openWindowAt(
-        shulkerChestLocation.getVec3().getX(),
-        shulkerChestLocation.getVec3().getY(),
-        shulkerChestLocation.getVec3().getZ());
+        shulkerChestLocation.vec3().x(),
+        shulkerChestLocation.vec3().y(),
+        shulkerChestLocation.vec3().z());
 
     // Transfer shulker from chest to player slot 27 (first hotbar slot)
     bot.inventoryTracker.transferItems(27, shulkerChestSlot, 1, false);
@@ -39,19 +41,18 @@ public class UnloadShulker {
     bot.inventoryTracker.closeWindow();
 
     // Navigate to shulker station and place shulker
-    Vec3 stationVec = shulkerStationLocation.getVec3();
+    Vec3 stationVec = shulkerStationLocation.vec3();
     bot.navigation.navigateTo(
-        stationVec.getX(), stationVec.getY(), stationVec.getZ(), shulkerStationLocation.getDim());
+        stationVec.x(), stationVec.y(), stationVec.z(), shulkerStationLocation.dim());
 
     // Place shulker block using WorldInteractions
-    WorldInteractions.placeBlockAt(
-        bot, 0, stationVec.getX(), stationVec.getY() + 2, stationVec.getZ());
+    WorldInteractions.placeBlockAt(bot, 0, stationVec.x(), stationVec.y() + 2, stationVec.z());
 
     // Wait for placement to complete
-    Thread.sleep(250);
+    bot.watchdog.sleep(250);
 
     // Open the placed shulker
-    bot.inventoryTracker.openWindowAt(stationVec.getX(), stationVec.getY() + 2, stationVec.getZ());
+    bot.inventoryTracker.openWindowAt(stationVec.x(), stationVec.y() + 2, stationVec.z());
 
     // Transfer items from shulker to player inventory
     for (int shulkerSlot = 0; shulkerSlot < Math.min(27, destinationHolds.length); shulkerSlot++) {
@@ -66,15 +67,14 @@ public class UnloadShulker {
     bot.inventoryTracker.closeWindow();
 
     // Break shulker using button (piston mechanism)
-    WorldInteractions.pushButtonAt(
-        bot, stationVec.getX(), stationVec.getY() + 4, stationVec.getZ());
+    WorldInteractions.pushButtonAt(bot, stationVec.x(), stationVec.y() + 4, stationVec.z());
 
     // Wait for piston to fully retract and shulker to be collected
-    Thread.sleep(250);
+    bot.watchdog.sleep(250);
 
     // Wait for shulker to appear in inventory (hotbar slot 0)
     for (int attempts = 0; attempts < 100; attempts++) {
-      Thread.sleep(50);
+      bot.watchdog.sleep(50);
       // The shulker should appear in the player's hotbar slot 0 (inventory slot 36)
       if (bot.inventoryTracker.getPlayerInventory()[27] != null) {
         break;
@@ -87,14 +87,11 @@ public class UnloadShulker {
 
     // Put shulker back in its storage slot
     bot.navigation.navigateTo(
-        shulkerOpenFrom.getX(),
-        shulkerOpenFrom.getY(),
-        shulkerOpenFrom.getZ(),
-        shulkerChestLocation.getDim());
+        shulkerOpenFrom.x(), shulkerOpenFrom.y(), shulkerOpenFrom.z(), shulkerChestLocation.dim());
     bot.inventoryTracker.openWindowAt(
-        shulkerChestLocation.getVec3().getX(),
-        shulkerChestLocation.getVec3().getY(),
-        shulkerChestLocation.getVec3().getZ());
+        shulkerChestLocation.vec3().x(),
+        shulkerChestLocation.vec3().y(),
+        shulkerChestLocation.vec3().z());
 
     // Transfer shulker back to chest
     bot.inventoryTracker.transferItems(27, shulkerChestSlot, 1, true);
@@ -113,13 +110,13 @@ public class UnloadShulker {
       if (bot.inventoryTracker.getPlayerInventory()[i] == null) continue;
 
       // Get destination hold information
-      Hold destinationHold = bot.operator.getHold(destinationHolds[i], bot.agent);
-      Location destinationLocation = destinationHold.getLocation();
-      int destinationSlot = destinationHold.getSlot();
-      Vec3 destOpenFrom = destinationHold.getOpenFrom();
+      Hold destinationHold = holds[i + 1];
+      Location destinationLocation = destinationHold.location();
+      int destinationSlot = destinationHold.slot();
+      Vec3 destOpenFrom = destinationHold.openFrom();
 
       // If we need to open a different chest, close current and open new one
-      if (!locationEquals(destinationLocation, lastChestLocation)) {
+      if (!destinationLocation.equals(lastChestLocation)) {
         if (isChestOpen) {
           InventoryUtil.uploadInventoryData(bot, lastChestLocation, lastChestOpenFrom);
           bot.inventoryTracker.closeWindow();
@@ -128,16 +125,13 @@ public class UnloadShulker {
 
         // Navigate to the chest opening position
         bot.navigation.navigateTo(
-            destOpenFrom.getX(),
-            destOpenFrom.getY(),
-            destOpenFrom.getZ(),
-            destinationLocation.getDim());
+            destOpenFrom.x(), destOpenFrom.y(), destOpenFrom.z(), destinationLocation.dim());
 
         // Open the chest
         bot.inventoryTracker.openWindowAt(
-            destinationLocation.getVec3().getX(),
-            destinationLocation.getVec3().getY(),
-            destinationLocation.getVec3().getZ());
+            destinationLocation.vec3().x(),
+            destinationLocation.vec3().y(),
+            destinationLocation.vec3().z());
 
         isChestOpen = true;
         lastChestLocation = destinationLocation;
@@ -154,16 +148,4 @@ public class UnloadShulker {
       bot.inventoryTracker.closeWindow();
     }
   }
-
-  private static boolean locationEquals(Location loc1, Location loc2) {
-    if (loc1 == null || loc2 == null) {
-      return false;
-    }
-    Vec3 vec1 = loc1.getVec3();
-    Vec3 vec2 = loc2.getVec3();
-    return vec1.getX() == vec2.getX()
-        && vec1.getY() == vec2.getY()
-        && vec1.getZ() == vec2.getZ()
-        && loc1.getDim().equals(loc2.getDim());
-  }
 }
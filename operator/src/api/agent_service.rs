@@ -1,21 +1,26 @@
 use std::ops::DerefMut;
+use std::time::Duration;
 
-use actix_web::{get, post, web, HttpResponse, Responder};
+use actix_web::{get, post, web, HttpRequest, HttpResponse, Responder};
+use actix_ws::AggregatedMessage;
 use chrono::Utc;
-use serde::{Deserialize, Serialize};
+use futures_util::StreamExt;
+use serde::{de::DeserializeOwned, Deserialize, Serialize};
+use serde_json::Value;
 use uuid::Uuid;
 
 use crate::{
     pathfinding::{PathfindingError, PfResultNode},
     state::{
-        agents::Agent,
+        agents::{Agent, AgentCapabilities},
         alerts::{Alert, AlertSource},
         holds::Hold,
+        metrics::{Timing, TravelTiming},
         operations::{Operation, OperationError, OperationStatus},
         sign_config::Sign,
-        StateData,
+        State, StateData,
     },
-    types::{Dimension, Inventory, Location, UnhashedItem, Vec2, Vec3},
+    types::{Dimension, Inventory, Item, Location, UnhashedItem, Vec2, Vec3},
 };
 
 #[derive(Serialize)]
@@ -34,6 +39,10 @@ async fn register_agent(state: StateData) -> impl Responder {
 
 #[post("/heartbeat")]
 async fn heartbeat(_agent: Agent) -> impl Responder {
+    heartbeat_response()
+}
+
+fn heartbeat_response() -> HttpResponse {
     HttpResponse::Ok().body("success")
 }
 
@@ -66,46 +75,193 @@ async fn alert(
     HttpResponse::Ok().json(AgentAlertResponse { alert })
 }
 
+// Long polls are capped well below the agent expiration window
+const MAX_POLL_WAIT: Duration = Duration::from_secs(30);
+
 #[derive(Deserialize)]
 pub struct PollOperationRequest {
     location: Location,
     has_clear_inventory: bool,
+    // How long to hold the request open waiting for an operation, 0 returns immediately
+    #[serde(default)]
+    wait_ms: u64,
+    // Operations the agent is willing to execute in one trip, older agents take one at a time
+    #[serde(default = "default_max_operations")]
+    max_operations: usize,
+    // What the agent is carrying and has loaded, used to pick the cheapest operation for it
+    #[serde(default)]
+    capabilities: Option<AgentCapabilities>,
+}
+
+fn default_max_operations() -> usize {
+    1
 }
 
 #[derive(Serialize)]
 #[serde(tag = "type")]
 enum PollOperationResponse {
-    OperationAvailable { operation: Operation },
+    OperationAvailable {
+        operation: Operation,
+        // Claimed alongside operation, to be picked up and delivered in the same trip
+        #[serde(skip_serializing_if = "Vec::is_empty")]
+        additional_operations: Vec<Operation>,
+        // Per source hold, the carried slot to use instead of picking the items up
+        #[serde(skip_serializing_if = "Option::is_none")]
+        carried_sources: Option<Vec<Option<u32>>>,
+    },
     OperationUnavailable,
 }
 
+// Claims the next operation for the agent, along with as many operations that can share its
+// trip as the agent asked for
+fn claim_operations(
+    state: &mut State,
+    agent_id: Uuid,
+    location: Location,
+    has_clear_inventory: bool,
+    max_operations: usize,
+    capabilities: Option<AgentCapabilities>,
+) -> PollOperationResponse {
+    if let Some(capabilities) = &capabilities {
+        state
+            .agents
+            .set_capabilities(agent_id, capabilities.clone())
+            .unwrap();
+
+        // An agent still carrying items is first offered work those items can go towards, if it
+        // accepts carry-over operations at all
+        if !has_clear_inventory && capabilities.accepts_carry_over {
+            let carried: Vec<Option<Item>> = capabilities
+                .carried_items
+                .iter()
+                .map(|item| item.clone().map(|item| item.into_item()))
+                .collect();
+
+            if let Some((operation, carried_sources)) = state.operations.take_carry_over_operation(
+                &state.holds,
+                &state.inventories,
+                &carried,
+                capabilities.free_slots,
+            ) {
+                state.agents.set_operation(agent_id, Some(operation.id)).unwrap();
+                state
+                    .agents
+                    .set_carried_sources(agent_id, Some(carried_sources.clone()))
+                    .unwrap();
+
+                return PollOperationResponse::OperationAvailable {
+                    operation,
+                    additional_operations: vec![],
+                    carried_sources: Some(carried_sources),
+                };
+            }
+        }
+    }
+
+    let operation = match state
+        .operations
+        .take_next_operation(location, has_clear_inventory, capabilities.as_ref())
+        .map(|op| op.clone())
+    {
+        Some(op) => op,
+        None => return PollOperationResponse::OperationUnavailable,
+    };
+
+    let additional_operations = state
+        .operations
+        .take_batchable_operations(operation.id, max_operations.saturating_sub(1));
+
+    state.agents.set_operation(agent_id, Some(operation.id)).unwrap();
+    state
+        .agents
+        .set_batched_operations(
+            agent_id,
+            additional_operations.iter().map(|op| op.id).collect(),
+        )
+        .unwrap();
+
+    PollOperationResponse::OperationAvailable {
+        operation,
+        additional_operations,
+        carried_sources: None,
+    }
+}
+
+// The operations the agent has claimed but not yet completed, if any
+fn outstanding_operations(state: &State, agent: &Agent) -> Option<PollOperationResponse> {
+    let operation = state.operations.get(agent.current_operation?)?.clone();
+    let additional_operations = agent
+        .batched_operations
+        .iter()
+        .filter_map(|op_id| state.operations.get(*op_id).cloned())
+        .collect();
+
+    Some(PollOperationResponse::OperationAvailable {
+        operation,
+        additional_operations,
+        carried_sources: agent.carried_sources.clone(),
+    })
+}
+
 #[post("/poll_operation")]
 async fn poll_operation(
     agent: Agent,
     state: StateData,
     poll_req: web::Json<PollOperationRequest>,
 ) -> impl Responder {
-    let mut state = state.lock().unwrap();
-
-    if agent.current_operation.is_some() {
-        return HttpResponse::Conflict().body("Agent already is executing an operation");
-    }
-
-    let next_operation = state
-        .operations
-        .take_next_operation(poll_req.location, poll_req.has_clear_inventory)
-        .map(|op| op.clone());
+    poll_operation_response(agent, state, poll_req.into_inner()).await
+}
 
-    HttpResponse::Ok().json(match next_operation {
-        Some(op) => {
-            state.agents.set_operation(agent.id, Some(op.id)).unwrap();
+async fn poll_operation_response(
+    agent: Agent,
+    state: StateData,
+    poll_req: PollOperationRequest,
+) -> HttpResponse {
+    let wait = Duration::from_millis(poll_req.wait_ms).min(MAX_POLL_WAIT);
+    let deadline = tokio::time::Instant::now() + wait;
+
+    loop {
+        // Subscribe before checking the queue so an operation queued in between isn't missed
+        let queue_changed = state.lock().unwrap().operations.queue_changed();
+        let notified = queue_changed.notified();
+
+        {
+            let mut state = state.lock().unwrap();
+
+            // Re-read the agent each pass, keeping it marked as seen for the whole wait
+            let agent = match state.agents.get_and_mark_seen(agent.id) {
+                Ok(agent) => agent.clone(),
+                Err(_) => return HttpResponse::BadRequest().body("Agent ID Not Found"),
+            };
+
+            // The agent lost the response that handed it its operations, send them again
+            if agent.current_operation.is_some() {
+                return match outstanding_operations(&state, &agent) {
+                    Some(res) => HttpResponse::Ok().json(res),
+                    None => {
+                        HttpResponse::Conflict().body("Agent already is executing an operation")
+                    }
+                };
+            }
 
-            PollOperationResponse::OperationAvailable {
-                operation: op.clone(),
+            let res = claim_operations(
+                &mut state,
+                agent.id,
+                poll_req.location,
+                poll_req.has_clear_inventory,
+                poll_req.max_operations,
+                poll_req.capabilities.clone(),
+            );
+
+            if let PollOperationResponse::OperationAvailable { .. } = res {
+                return HttpResponse::Ok().json(res);
             }
         }
-        None => PollOperationResponse::OperationUnavailable,
-    })
+
+        if tokio::time::timeout_at(deadline, notified).await.is_err() {
+            return HttpResponse::Ok().json(PollOperationResponse::OperationUnavailable);
+        }
+    }
 }
 
 #[derive(Serialize)]
@@ -115,9 +271,13 @@ struct HoldResponse {
 
 #[get("/hold/{hold_id}")]
 async fn get_hold(_agent: Agent, state: StateData, hold_id: web::Path<Uuid>) -> impl Responder {
+    get_hold_response(&state, hold_id.into_inner())
+}
+
+fn get_hold_response(state: &StateData, hold_id: Uuid) -> HttpResponse {
     let state = state.lock().unwrap();
 
-    let hold = state.holds.get(hold_id.into_inner());
+    let hold = state.holds.get(hold_id);
 
     match hold {
         Some(hold) => HttpResponse::Ok().json(HoldResponse { hold: hold.clone() }),
@@ -125,6 +285,63 @@ async fn get_hold(_agent: Agent, state: StateData, hold_id: web::Path<Uuid>) ->
     }
 }
 
+#[derive(Deserialize)]
+pub struct HoldsRequest {
+    hold_ids: Vec<Uuid>,
+}
+
+#[derive(Serialize)]
+struct HoldsResponse {
+    holds: Vec<Hold>,
+}
+
+#[post("/holds")]
+async fn get_holds(
+    _agent: Agent,
+    state: StateData,
+    req: web::Json<HoldsRequest>,
+) -> impl Responder {
+    get_holds_response(&state, req.into_inner())
+}
+
+// Resolves every requested hold in one lookup, in request order
+fn get_holds_response(state: &StateData, req: HoldsRequest) -> HttpResponse {
+    let state = state.lock().unwrap();
+
+    let holds: Option<Vec<Hold>> = req
+        .hold_ids
+        .iter()
+        .map(|id| state.holds.get(*id).cloned())
+        .collect();
+
+    match holds {
+        Some(holds) => HttpResponse::Ok().json(HoldsResponse { holds }),
+        None => HttpResponse::NotFound().body(""),
+    }
+}
+
+#[post("/holds/renew")]
+async fn renew_holds(
+    _agent: Agent,
+    state: StateData,
+    req: web::Json<HoldsRequest>,
+) -> impl Responder {
+    renew_holds_response(&state, req.into_inner())
+}
+
+// Renews every requested hold that still exists, leaving missing ones out of the response
+fn renew_holds_response(state: &StateData, req: HoldsRequest) -> HttpResponse {
+    let mut state = state.lock().unwrap();
+
+    let holds: Vec<Hold> = req
+        .hold_ids
+        .iter()
+        .filter_map(|id| state.holds.renew(*id).cloned())
+        .collect();
+
+    HttpResponse::Ok().json(HoldsResponse { holds })
+}
+
 #[derive(Serialize)]
 #[serde(tag = "type")]
 enum FreeHoldResponse {
@@ -151,15 +368,32 @@ async fn free_hold(_agent: Agent, state: StateData) -> impl Responder {
 }
 
 #[derive(Deserialize)]
-struct OperationCompleteRequest {
+pub struct PollNextRequest {
+    location: Location,
+    has_clear_inventory: bool,
+    #[serde(default = "default_max_operations")]
+    max_operations: usize,
+    #[serde(default)]
+    capabilities: Option<AgentCapabilities>,
+}
+
+#[derive(Deserialize)]
+pub struct OperationCompleteRequest {
     operation_id: Uuid,
     final_status: OperationStatus,
+    // When present the agent's next operation is claimed in the same request
+    #[serde(default)]
+    poll_next: Option<PollNextRequest>,
 }
 
 #[derive(Serialize)]
 #[serde(tag = "type")]
 enum OperationCompleteResponse {
-    OperationCompleted { operation: Operation },
+    OperationCompleted {
+        operation: Operation,
+        #[serde(skip_serializing_if = "Option::is_none")]
+        next: Option<PollOperationResponse>,
+    },
     Error(OperationError),
 }
 
@@ -169,9 +403,33 @@ async fn operation_complete(
     state: StateData,
     operation_data: web::Json<OperationCompleteRequest>,
 ) -> impl Responder {
+    operation_complete_response(agent, &state, operation_data.into_inner())
+}
+
+fn operation_complete_response(
+    agent: Agent,
+    state: &StateData,
+    operation_data: OperationCompleteRequest,
+) -> HttpResponse {
     let mut state = state.lock().unwrap();
 
-    if agent.current_operation != Some(operation_data.operation_id) {
+    if !agent.is_executing(operation_data.operation_id) {
+        // A retried pipelined completion whose first attempt landed, answer it the same way again
+        let finalized = state
+            .operations
+            .get(operation_data.operation_id)
+            .filter(|op| op.finalized_at.is_some());
+
+        if let (Some(_), Some(op)) = (&operation_data.poll_next, finalized) {
+            let next = outstanding_operations(&state, &agent)
+                .unwrap_or(PollOperationResponse::OperationUnavailable);
+
+            return HttpResponse::Ok().json(OperationCompleteResponse::OperationCompleted {
+                operation: op.clone(),
+                next: Some(next),
+            });
+        }
+
         return HttpResponse::BadRequest()
             .body("Given operation does not match currently executing operation (if any)");
     }
@@ -182,7 +440,10 @@ async fn operation_complete(
         return HttpResponse::BadRequest().body("Invalid final operation status given");
     }
 
-    state.agents.set_operation(agent.id, None).unwrap();
+    state
+        .agents
+        .finish_operation(agent.id, operation_data.operation_id)
+        .unwrap();
 
     let res = state
         .operations
@@ -199,7 +460,26 @@ async fn operation_complete(
                 );
             }
 
-            HttpResponse::Ok().json(OperationCompleteResponse::OperationCompleted { operation: op })
+            let next = operation_data.poll_next.map(|poll_next| {
+                // Operations still left in the agent's batch come before claiming new ones
+                let agent = state.agents.get_and_mark_seen(agent.id).unwrap().clone();
+                match outstanding_operations(&state, &agent) {
+                    Some(res) => res,
+                    None => claim_operations(
+                        &mut state,
+                        agent.id,
+                        poll_next.location,
+                        poll_next.has_clear_inventory,
+                        poll_next.max_operations,
+                        poll_next.capabilities,
+                    ),
+                }
+            });
+
+            HttpResponse::Ok().json(OperationCompleteResponse::OperationCompleted {
+                operation: op,
+                next,
+            })
         }
         Err(error) => HttpResponse::BadRequest().json(OperationCompleteResponse::Error(error)),
     }
@@ -210,22 +490,45 @@ pub struct InventoryScannedRequest {
     location: Location,
     slots: Vec<Option<UnhashedItem>>,
     open_from: Vec3,
+    // Holds of the agent's operations it has finished with in this chest before scanning it
+    #[serde(default)]
+    fulfilled_holds: Vec<Uuid>,
 }
 
 #[post("/inventory_scanned")]
 async fn inventory_scanned(
-    _agent: Agent,
+    agent: Agent,
     state: StateData,
     inventory_data: web::Json<InventoryScannedRequest>,
 ) -> impl Responder {
+    inventory_scanned_response(agent, &state, inventory_data.into_inner())
+}
+
+fn inventory_scanned_response(
+    agent: Agent,
+    state: &StateData,
+    inventory_data: InventoryScannedRequest,
+) -> HttpResponse {
     let mut state = state.lock().unwrap();
     let open_from = inventory_data.open_from;
 
+    // The upload settles the holds the agent finished with in this chest
+    if !inventory_data.fulfilled_holds.is_empty() {
+        for op_id in agent
+            .current_operation
+            .iter()
+            .chain(agent.batched_operations.iter())
+        {
+            let _ = state
+                .operations
+                .record_fulfilled_holds(*op_id, &inventory_data.fulfilled_holds);
+        }
+    }
+
     state.inventories.set_inventory_at(
         inventory_data.location,
         Inventory {
             slots: inventory_data
-                .into_inner()
                 .slots
                 .into_iter()
                 .map(|slot| match slot {
@@ -238,7 +541,68 @@ async fn inventory_scanned(
         },
     );
 
-    HttpResponse::Ok()
+    HttpResponse::Ok().finish()
+}
+
+#[derive(Deserialize)]
+pub struct LocationTiming {
+    location: Location,
+    count: f64,
+    total_ms: f64,
+}
+
+#[derive(Deserialize)]
+pub struct TelemetryRequest {
+    travel: TravelTiming,
+    #[serde(default)]
+    portals: Vec<LocationTiming>,
+    #[serde(default)]
+    window_opens: Vec<LocationTiming>,
+    #[serde(default)]
+    transfers: f64,
+    #[serde(default)]
+    transfer_ms: f64,
+}
+
+#[post("/telemetry")]
+async fn telemetry(
+    _agent: Agent,
+    state: StateData,
+    telemetry_req: web::Json<TelemetryRequest>,
+) -> impl Responder {
+    telemetry_response(&state, telemetry_req.into_inner())
+}
+
+// Folds an agent's measured timings into the travel metrics used for pathfinding
+fn telemetry_response(state: &StateData, telemetry_req: TelemetryRequest) -> HttpResponse {
+    let mut state = state.lock().unwrap();
+    let travel = &mut state.metrics.travel;
+
+    travel.record_travel(telemetry_req.travel);
+    for portal in telemetry_req.portals {
+        travel.record_portal(
+            portal.location,
+            Timing {
+                count: portal.count,
+                total_ms: portal.total_ms,
+            },
+        );
+    }
+    for window_open in telemetry_req.window_opens {
+        travel.record_window_open(
+            window_open.location,
+            Timing {
+                count: window_open.count,
+                total_ms: window_open.total_ms,
+            },
+        );
+    }
+    travel.record_transfers(Timing {
+        count: telemetry_req.transfers,
+        total_ms: telemetry_req.transfer_ms,
+    });
+
+    HttpResponse::Ok().finish()
 }
 
 #[derive(Deserialize, Debug)]
@@ -288,9 +652,13 @@ async fn sign_scan_data(
     state: StateData,
     req: web::Json<SignScanDataRequest>,
 ) -> impl Responder {
+    sign_scan_data_response(&state, req.into_inner())
+}
+
+fn sign_scan_data_response(state: &StateData, req: SignScanDataRequest) -> HttpResponse {
     let mut state = state.lock().unwrap();
 
-    for scan_region in req.into_inner().scan_regions.into_iter() {
+    for scan_region in req.scan_regions.into_iter() {
         state.sign_config.clear_area(
             scan_region.dimension,
             scan_region.bounds.0,
@@ -302,7 +670,160 @@ async fn sign_scan_data(
         }
     }
 
-    HttpResponse::Ok()
+    HttpResponse::Ok().finish()
+}
+
+#[derive(Deserialize)]
+struct ChannelRequest {
+    id: u64,
+    op: String,
+    #[serde(default)]
+    body: Value,
+}
+
+#[derive(Serialize)]
+struct ChannelResponse {
+    id: u64,
+    status: u16,
+    body: Value,
+}
+
+#[derive(Deserialize)]
+struct ChannelHoldRequest {
+    hold_id: Uuid,
+}
+
+// Largest single frame accepted on the channel, sized for sign scans of a full view distance
+const CHANNEL_MAX_FRAME_SIZE: usize = 16 * 1024 * 1024;
+
+fn parse_channel_body<T: DeserializeOwned>(body: Value) -> Result<T, HttpResponse> {
+    serde_json::from_value(body).map_err(|err| HttpResponse::BadRequest().body(err.to_string()))
+}
+
+// Runs a framed request through the same logic as its REST endpoint
+async fn dispatch_channel_request(
+    agent_id: Uuid,
+    state: StateData,
+    req: ChannelRequest,
+) -> ChannelResponse {
+    let agent = {
+        let mut state = state.lock().unwrap();
+        state
+            .agents
+            .get_and_mark_seen(agent_id)
+            .map(|agent| agent.clone())
+    };
+
+    let response = match agent {
+        Err(_) => HttpResponse::BadRequest().body("Agent ID Not Found"),
+        Ok(agent) => match req.op.as_str() {
+            "heartbeat" => heartbeat_response(),
+            "poll_operation" => match parse_channel_body(req.body) {
+                Ok(body) => poll_operation_response(agent, state, body).await,
+                Err(response) => response,
+            },
+            "get_hold" => match parse_channel_body::<ChannelHoldRequest>(req.body) {
+                Ok(body) => get_hold_response(&state, body.hold_id),
+                Err(response) => response,
+            },
+            "get_holds" => match parse_channel_body(req.body) {
+                Ok(body) => get_holds_response(&state, body),
+                Err(response) => response,
+            },
+            "telemetry" => match parse_channel_body(req.body) {
+                Ok(body) => telemetry_response(&state, body),
+                Err(response) => response,
+            },
+            "renew_holds" => match parse_channel_body(req.body) {
+                Ok(body) => renew_holds_response(&state, body),
+                Err(response) => response,
+            },
+            "operation_complete" => match parse_channel_body(req.body) {
+                Ok(body) => operation_complete_response(agent, &state, body),
+                Err(response) => response,
+            },
+            "inventory_scanned" => match parse_channel_body(req.body) {
+                Ok(body) => inventory_scanned_response(agent, &state, body),
+                Err(response) => response,
+            },
+            "sign_scan_data" => match parse_channel_body(req.body) {
+                Ok(body) => sign_scan_data_response(&state, body),
+                Err(response) => response,
+            },
+            _ => HttpResponse::NotFound().body("Unknown channel operation"),
+        },
+    };
+
+    let status = response.status().as_u16();
+    let bytes = actix_web::body::to_bytes(response.into_body())
+        .await
+        .unwrap_or_default();
+    let body = serde_json::from_slice(&bytes)
+        .unwrap_or_else(|_| Value::String(String::from_utf8_lossy(&bytes).into_owned()));
+
+    ChannelResponse {
+        id: req.id,
+        status,
+        body,
+    }
+}
+
+#[get("/channel")]
+async fn channel(
+    agent: Agent,
+    state: StateData,
+    req: HttpRequest,
+    payload: web::Payload,
+) -> Result<HttpResponse, actix_web::Error> {
+    let (response, mut session, msg_stream) = actix_ws::handle(&req, payload)?;
+    let mut msg_stream = msg_stream
+        .max_frame_size(CHANNEL_MAX_FRAME_SIZE)
+        .aggregate_continuations()
+        .max_continuation_size(CHANNEL_MAX_FRAME_SIZE);
+    let agent_id = agent.id;
+
+    info!("Agent {} opened a channel", agent_id);
+
+    actix_web::rt::spawn(async move {
+        while let Some(Ok(msg)) = msg_stream.next().await {
+            match msg {
+                AggregatedMessage::Text(text) => {
+                    let channel_req = match serde_json::from_str::<ChannelRequest>(&text) {
+                        Ok(channel_req) => channel_req,
+                        Err(err) => {
+                            warn!("Agent {} sent a malformed frame: {}", agent_id, err);
+                            continue;
+                        }
+                    };
+
+                    // Each frame is handled on its own task so a long poll doesn't block the rest
+                    let mut session = session.clone();
+                    let state = state.clone();
+                    actix_web::rt::spawn(async move {
+                        let response = dispatch_channel_request(agent_id, state, channel_req).await;
+                        let _ = session
+                            .text(serde_json::to_string(&response).unwrap())
+                            .await;
+                    });
+                }
+                AggregatedMessage::Ping(bytes) => {
+                    if session.pong(&bytes).await.is_err() {
+                        break;
+                    }
+                }
+                AggregatedMessage::Close(reason) => {
+                    info!("Agent {} closed its channel", agent_id);
+                    let _ = session.close(reason).await;
+                    return;
+                }
+                _ => {}
+            }
+        }
+
+        let _ = session.close(None).await;
+    });
+
+    Ok(response)
 }
 
 pub fn configure(app: &mut web::ServiceConfig) {
@@ -313,10 +834,14 @@ pub fn configure(app: &mut web::ServiceConfig) {
             .service(alert)
             .service(poll_operation)
             .service(get_hold)
+            .service(get_holds)
+            .service(renew_holds)
             .service(free_hold)
             .service(operation_complete)
             .service(inventory_scanned)
             .service(pathfinding)
-            .service(sign_scan_data),
+            .service(sign_scan_data)
+            .service(telemetry)
+            .service(channel),
     );
 }
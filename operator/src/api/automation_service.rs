@@ -1,4 +1,8 @@
-use actix_web::{delete, get, post, web, HttpResponse, Responder};
+use actix_web::{
+    delete, get,
+    http::header::{self, ContentType},
+    post, web, HttpRequest, HttpResponse, Responder,
+};
 use serde::{Deserialize, Serialize};
 use uuid::Uuid;
 
@@ -46,11 +50,26 @@ async fn inventory_listing(state: StateData) -> impl Responder {
 }
 
 #[get("/sign_config")]
-async fn sign_config(state: StateData) -> impl Responder {
+async fn sign_config(req: HttpRequest, state: StateData) -> impl Responder {
     let state = state.lock().unwrap();
-    let sign_config = state.sign_config.get_config();
+    let sign_config = state.sign_config.get_serialized_config();
+
+    let unchanged = req
+        .headers()
+        .get(header::IF_NONE_MATCH)
+        .and_then(|value| value.to_str().ok())
+        .map_or(false, |etag| etag == sign_config.etag);
+
+    if unchanged {
+        return HttpResponse::NotModified()
+            .insert_header((header::ETAG, sign_config.etag.clone()))
+            .finish();
+    }
 
-    HttpResponse::Ok().json(sign_config.as_ref())
+    HttpResponse::Ok()
+        .content_type(ContentType::json())
+        .insert_header((header::ETAG, sign_config.etag.clone()))
+        .body(sign_config.body.clone())
 }
 
 #[derive(Serialize)]
@@ -97,6 +97,9 @@ async fn main() -> Result<(), StartupError> {
             .app_data(app_config.clone())
             .app_data(app_state.clone())
             .wrap(middleware::Logger::default())
+            // Compresses responses for clients that send Accept-Encoding, compressed request
+            // bodies are decoded by the extractors
+            .wrap(middleware::Compress::default())
             .wrap(middleware::NormalizePath::trim())
             .wrap(Cors::permissive())
             .service(
@@ -1,4 +1,4 @@
-use pathfinding::directed::bfs::bfs;
+use pathfinding::directed::dijkstra::dijkstra;
 use serde::Serialize;
 use thiserror::Error;
 
@@ -165,14 +165,17 @@ pub fn find_path(
         return Ok(vec![PfResultNode::Vec(end_loc.vec3)]);
     }
 
-    let path = bfs(
+    // Edges are weighted by how long agents have measured them to take, in milliseconds
+    let travel = &state.metrics.travel;
+
+    let path = dijkstra(
         &PfNode::Normal {
             node: starting_node,
         },
         |node| match &node {
             PfNode::Normal { node } => {
                 let config_node = sign_config.nodes.get(node).unwrap();
-                let mut connected_nodes: Vec<PfNode> = sign_config
+                let mut connected_nodes: Vec<(PfNode, u64)> = sign_config
                     .nodes
                     .iter()
                     .filter(|(name, sign_node)| {
@@ -186,15 +189,30 @@ pub fn find_path(
 
                         return true;
                     })
-                    .map(|(name, _sign_node)| PfNode::Normal {
-                        node: name.to_owned(),
+                    .map(|(name, sign_node)| {
+                        let blocks = config_node.location.vec3.dist(sign_node.location.vec3);
+
+                        (
+                            PfNode::Normal {
+                                node: name.to_owned(),
+                            },
+                            travel.leg_ms(blocks) as u64,
+                        )
                     })
                     .collect();
 
-                if config_node.portal.is_some() {
-                    connected_nodes.push(PfNode::Portal {
-                        source_node: node.clone(),
-                    });
+                if let Some(portal) = &config_node.portal {
+                    let portal_loc = Location {
+                        vec3: portal.vec3,
+                        dim: config_node.location.dim,
+                    };
+
+                    connected_nodes.push((
+                        PfNode::Portal {
+                            source_node: node.clone(),
+                        },
+                        travel.portal_ms(&portal_loc) as u64,
+                    ));
                 }
 
                 connected_nodes
@@ -205,14 +223,18 @@ pub fn find_path(
                 let destination_node = sign_config.nodes.get(&portal.destination_node_name);
 
                 if destination_node.is_some() {
-                    vec![PfNode::Normal {
-                        node: config_node
-                            .portal
-                            .as_ref()
-                            .unwrap()
-                            .destination_node_name
-                            .clone(),
-                    }]
+                    // Where the portal comes out isn't known, so count a leg of no distance
+                    vec![(
+                        PfNode::Normal {
+                            node: config_node
+                                .portal
+                                .as_ref()
+                                .unwrap()
+                                .destination_node_name
+                                .clone(),
+                        },
+                        travel.leg_ms(0.0) as u64,
+                    )]
                 } else {
                     vec![]
                 }
@@ -224,7 +246,7 @@ pub fn find_path(
         },
     );
 
-    path.map(|path| {
+    path.map(|(path, _cost)| {
         path.iter()
             .map(|node| match node {
                 PfNode::Normal { node } => {
@@ -42,8 +42,18 @@ impl Service for AbortedOperationRecoveryService {
                 info!("Attempting hold recovery from operation {}", op_id);
                 let op = state.operations.get(*op_id).unwrap();
 
-                let hold_ids = op
+                // Fulfilled holds' chests were uploaded after the agent was done with them, so
+                // only the rest need rescanning
+                let (fulfilled_holds, uncertain_holds): (Vec<Uuid>, Vec<Uuid>) = op
                     .holds()
+                    .into_iter()
+                    .partition(|hold_id| op.fulfilled_holds.contains(hold_id));
+
+                for hold_id in fulfilled_holds {
+                    state.holds.remove(hold_id);
+                }
+
+                let hold_ids = uncertain_holds
                     .iter()
                     .flat_map(|hold_id| state.holds.takeover(*hold_id).map(|hold| hold.id))
                     .collect::<Vec<Uuid>>();
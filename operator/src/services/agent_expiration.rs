@@ -30,10 +30,14 @@ impl Service for AgentExpirationService {
         for agent_id in agents_to_remove {
             let agent = state.agents.remove(agent_id).unwrap();
 
-            if let Some(op_id) = agent.current_operation {
+            for op_id in agent
+                .current_operation
+                .iter()
+                .chain(agent.batched_operations.iter())
+            {
                 let operation = state
                     .operations
-                    .set_operation_status(op_id, OperationStatus::Aborted)
+                    .set_operation_status(*op_id, OperationStatus::Aborted)
                     .unwrap();
 
                 state.alerts.add_alert(
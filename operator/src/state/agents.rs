@@ -3,17 +3,61 @@ use std::collections::HashMap;
 use actix_web::{dev, error::ErrorBadRequest, FromRequest, HttpRequest};
 use chrono::{DateTime, Utc};
 use futures_util::future::{err, ok, Ready};
-use serde::Serialize;
+use serde::{Deserialize, Serialize};
 use thiserror::Error;
 use uuid::Uuid;
 
 use crate::state::StateData;
+use crate::types::{Dimension, Location, UnhashedItem};
 
 #[derive(Serialize, Clone)]
 pub struct Agent {
     pub id: Uuid,
     pub last_seen: DateTime<Utc>,
     pub current_operation: Option<Uuid>,
+    // Further operations claimed alongside current_operation to be executed in the same trip
+    pub batched_operations: Vec<Uuid>,
+    // As of the agent's latest poll
+    pub capabilities: Option<AgentCapabilities>,
+    // Carried slots standing in for current_operation's sources, when it was claimed as carry-over
+    pub carried_sources: Option<Vec<Option<u32>>>,
+}
+
+#[derive(Serialize, Deserialize, Clone, Debug)]
+pub struct AgentCapabilities {
+    pub free_slots: u32,
+    // Indexed by player inventory slot
+    #[serde(default)]
+    pub carried_items: Vec<Option<UnhashedItem>>,
+    pub loaded_chunks: Option<LoadedChunks>,
+    #[serde(default)]
+    pub operations_per_minute: f64,
+    // Whether the agent wants carry-over operations for what it carries, off unless it says so
+    #[serde(default)]
+    pub accepts_carry_over: bool,
+}
+
+// Bounding box of an agent's loaded chunks, in chunk coordinates
+#[derive(Serialize, Deserialize, Clone, Copy, Debug)]
+pub struct LoadedChunks {
+    pub dim: Dimension,
+    pub min_x: i32,
+    pub max_x: i32,
+    pub min_z: i32,
+    pub max_z: i32,
+}
+
+impl LoadedChunks {
+    pub fn contains(&self, loc: &Location) -> bool {
+        let chunk_x = loc.vec3.x.div_euclid(16);
+        let chunk_z = loc.vec3.z.div_euclid(16);
+
+        loc.dim == self.dim
+            && chunk_x >= self.min_x
+            && chunk_x <= self.max_x
+            && chunk_z >= self.min_z
+            && chunk_z <= self.max_z
+    }
 }
 
 pub struct AgentState {
@@ -34,6 +78,12 @@ pub enum AgentError {
     NotFound,
 }
 
+impl Agent {
+    pub fn is_executing(&self, op: Uuid) -> bool {
+        self.current_operation == Some(op) || self.batched_operations.contains(&op)
+    }
+}
+
 impl AgentState {
     pub fn register(&mut self) -> &Agent {
         let id = Uuid::new_v4();
@@ -44,6 +94,9 @@ impl AgentState {
                 id,
                 last_seen: Utc::now(),
                 current_operation: None,
+                batched_operations: vec![],
+                capabilities: None,
+                carried_sources: None,
             },
         );
 
@@ -74,6 +127,60 @@ impl AgentState {
             })
     }
 
+    pub fn set_capabilities(
+        &mut self,
+        id: Uuid,
+        capabilities: AgentCapabilities,
+    ) -> Result<(), AgentError> {
+        self.agents
+            .get_mut(&id)
+            .ok_or_else(|| AgentError::NotFound)
+            .map(|agent| {
+                agent.capabilities = Some(capabilities);
+            })
+    }
+
+    pub fn set_carried_sources(
+        &mut self,
+        id: Uuid,
+        carried_sources: Option<Vec<Option<u32>>>,
+    ) -> Result<(), AgentError> {
+        self.agents
+            .get_mut(&id)
+            .ok_or_else(|| AgentError::NotFound)
+            .map(|agent| {
+                agent.carried_sources = carried_sources;
+            })
+    }
+
+    pub fn set_batched_operations(&mut self, id: Uuid, ops: Vec<Uuid>) -> Result<(), AgentError> {
+        self.agents
+            .get_mut(&id)
+            .ok_or_else(|| AgentError::NotFound)
+            .map(|agent| {
+                agent.batched_operations = ops;
+            })
+    }
+
+    // Marks one of the agent's operations finished, promoting a batched one if it was the current
+    pub fn finish_operation(&mut self, id: Uuid, op: Uuid) -> Result<(), AgentError> {
+        self.agents
+            .get_mut(&id)
+            .ok_or_else(|| AgentError::NotFound)
+            .map(|agent| {
+                if agent.current_operation == Some(op) {
+                    agent.carried_sources = None;
+                    agent.current_operation = if agent.batched_operations.is_empty() {
+                        None
+                    } else {
+                        Some(agent.batched_operations.remove(0))
+                    };
+                } else {
+                    agent.batched_operations.retain(|batched| *batched != op);
+                }
+            })
+    }
+
     pub fn iter(&self) -> impl Iterator<Item = &Agent> {
         self.agents.iter().map(|(_id, agent)| agent)
     }
@@ -1,14 +1,151 @@
 use std::collections::HashMap;
 use std::time::Duration;
 
+use serde::Deserialize;
+
+use crate::types::Location;
+
 pub struct MetricsState {
     pub services_tick_time: Option<HashMap<&'static str, Duration>>,
+    pub travel: TravelMetrics,
 }
 
 impl Default for MetricsState {
     fn default() -> Self {
         Self {
             services_tick_time: None,
+            travel: Default::default(),
+        }
+    }
+}
+
+// Past this many samples older ones are given half weight, so estimates follow recent conditions
+const TIMING_DECAY_SAMPLES: f64 = 1000.0;
+
+// Used until agents have reported enough to measure
+const DEFAULT_LEG_MS: f64 = 500.0;
+const DEFAULT_PORTAL_MS: f64 = 5000.0;
+
+#[derive(Deserialize, Default, Clone, Copy, Debug)]
+pub struct Timing {
+    pub count: f64,
+    pub total_ms: f64,
+}
+
+impl Timing {
+    fn add(&mut self, other: Timing) {
+        self.count += other.count;
+        self.total_ms += other.total_ms;
+
+        if self.count > TIMING_DECAY_SAMPLES {
+            self.count /= 2.0;
+            self.total_ms /= 2.0;
+        }
+    }
+
+    pub fn mean_ms(&self) -> Option<f64> {
+        if self.count > 0.0 {
+            Some(self.total_ms / self.count)
+        } else {
+            None
+        }
+    }
+}
+
+// Sums over travel legs of their length in blocks and duration, enough to fit a line through them
+#[derive(Deserialize, Default, Clone, Copy, Debug)]
+pub struct TravelTiming {
+    pub legs: f64,
+    pub blocks: f64,
+    pub ms: f64,
+    pub blocks_times_ms: f64,
+    pub blocks_squared: f64,
+}
+
+#[derive(Default)]
+pub struct TravelMetrics {
+    travel: TravelTiming,
+    portals: HashMap<Location, Timing>,
+    all_portals: Timing,
+    // Kept per location for scheduling to draw on, only the overall mean is used so far
+    window_opens: HashMap<Location, Timing>,
+    all_window_opens: Timing,
+    transfers: Timing,
+}
+
+impl TravelMetrics {
+    pub fn record_travel(&mut self, timing: TravelTiming) {
+        let travel = &mut self.travel;
+        travel.legs += timing.legs;
+        travel.blocks += timing.blocks;
+        travel.ms += timing.ms;
+        travel.blocks_times_ms += timing.blocks_times_ms;
+        travel.blocks_squared += timing.blocks_squared;
+
+        if travel.legs > TIMING_DECAY_SAMPLES {
+            travel.legs /= 2.0;
+            travel.blocks /= 2.0;
+            travel.ms /= 2.0;
+            travel.blocks_times_ms /= 2.0;
+            travel.blocks_squared /= 2.0;
         }
     }
+
+    pub fn record_portal(&mut self, location: Location, timing: Timing) {
+        self.portals.entry(location).or_default().add(timing);
+        self.all_portals.add(timing);
+    }
+
+    pub fn record_window_open(&mut self, location: Location, timing: Timing) {
+        self.window_opens.entry(location).or_default().add(timing);
+        self.all_window_opens.add(timing);
+    }
+
+    pub fn record_transfers(&mut self, timing: Timing) {
+        self.transfers.add(timing);
+    }
+
+    // Least squares fit of leg time against distance, as (fixed ms, ms per block)
+    pub fn leg_fit(&self) -> Option<(f64, f64)> {
+        let t = &self.travel;
+        let denominator = t.legs * t.blocks_squared - t.blocks * t.blocks;
+        if t.legs < 2.0 || denominator.abs() < f64::EPSILON {
+            return None;
+        }
+
+        let per_block = ((t.legs * t.blocks_times_ms - t.blocks * t.ms) / denominator).max(0.0);
+        let fixed = ((t.ms - per_block * t.blocks) / t.legs).max(0.0);
+
+        Some((fixed, per_block))
+    }
+
+    // Expected time to fly a leg of the given length
+    pub fn leg_ms(&self, blocks: f64) -> f64 {
+        match self.leg_fit() {
+            Some((fixed, per_block)) => fixed + per_block * blocks,
+            None if self.travel.legs > 0.0 => self.travel.ms / self.travel.legs,
+            None => DEFAULT_LEG_MS,
+        }
+    }
+
+    // Expected time to take the portal entered at location
+    pub fn portal_ms(&self, location: &Location) -> f64 {
+        self.portals
+            .get(location)
+            .and_then(|timing| timing.mean_ms())
+            .or_else(|| self.all_portals.mean_ms())
+            .unwrap_or(DEFAULT_PORTAL_MS)
+    }
+
+    pub fn mean_window_open_ms(&self) -> Option<f64> {
+        self.all_window_opens.mean_ms()
+    }
+
+    pub fn mean_portal_ms(&self) -> Option<f64> {
+        self.all_portals.mean_ms()
+    }
+
+    pub fn mean_transfer_ms(&self) -> Option<f64> {
+        self.transfers.mean_ms()
+    }
 }
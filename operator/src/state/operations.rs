@@ -1,9 +1,12 @@
-use crate::types::{Location, Vec3};
+use crate::state::{agents::AgentCapabilities, holds::HoldState, inventories::InventoryState};
+use crate::types::{Item, Location, Vec3};
 use chrono::{DateTime, Duration, Utc};
 use serde::{Deserialize, Serialize};
 use std::cmp::Ordering;
 use std::collections::HashMap;
+use std::sync::Arc;
 use thiserror::Error;
+use tokio::sync::Notify;
 use uuid::Uuid;
 
 #[derive(Serialize, Deserialize, Debug, PartialEq, Eq, PartialOrd, Ord, Clone, Copy)]
@@ -29,6 +32,10 @@ pub struct Operation {
     pub status: OperationStatus,
     pub kind: OperationKind,
     pub finalized_at: Option<DateTime<Utc>>,
+    // Holds the agent has finished with and whose chest it has uploaded since, so their contents
+    // are known even if the operation is later aborted
+    #[serde(skip_serializing_if = "Vec::is_empty")]
+    pub fulfilled_holds: Vec<Uuid>,
 }
 
 #[derive(Debug, PartialEq, Eq, Serialize, Deserialize, Clone)]
@@ -75,9 +82,17 @@ pub enum OperationKind {
     },
 }
 
+// 27 main inventory slots and 9 hotbar slots
+const PLAYER_INVENTORY_SLOTS: usize = 36;
+
+// Roughly the distance an agent covers while waiting for a chunk to load
+const LOADED_CHUNK_DISCOUNT: i32 = 32;
+
 pub struct OperationState {
     operations: HashMap<Uuid, Operation>,
     pending_operation_ids: Vec<(Uuid, OperationPriority)>,
+    // Woken whenever the set of takeable operations may have changed, used by long polls
+    queue_changed: Arc<Notify>,
 }
 
 impl Default for OperationState {
@@ -85,6 +100,7 @@ impl Default for OperationState {
         OperationState {
             operations: Default::default(),
             pending_operation_ids: Default::default(),
+            queue_changed: Default::default(),
         }
     }
 }
@@ -110,10 +126,12 @@ impl OperationState {
                 status: OperationStatus::Pending,
                 kind,
                 finalized_at: None,
+                fulfilled_holds: vec![],
             },
         );
 
         self.pending_operation_ids.push((id, priority));
+        self.queue_changed.notify_waiters();
 
         self.operations.get(&id).unwrap()
     }
@@ -122,6 +140,7 @@ impl OperationState {
         &mut self,
         starting_loc: Location,
         has_clear_inventory: bool,
+        capabilities: Option<&AgentCapabilities>,
     ) -> Option<&Operation> {
         let shulker_stations_in_use = self
             .iter(OperationStatus::InProgress)
@@ -147,10 +166,7 @@ impl OperationState {
                 continue;
             }
 
-            let est_dist_cost = op
-                .starting_location()
-                .map(|loc| loc.distance_heuristic(&starting_loc))
-                .unwrap_or(0);
+            let est_dist_cost = op.estimated_cost(&starting_loc, capabilities);
 
             if let Some((_other_idx, _other_op_id, other_op, other_est_dist_cost)) =
                 leading_operation
@@ -178,11 +194,85 @@ impl OperationState {
         }
     }
 
+    // Claims pending operations that can share a trip with primary_id, in queue order within each
+    // priority, for as long as their items still fit in the player inventory alongside it
+    pub fn take_batchable_operations(&mut self, primary_id: Uuid, limit: usize) -> Vec<Operation> {
+        let mut slots_used = match self
+            .operations
+            .get(&primary_id)
+            .and_then(|op| op.inventory_slots_used())
+        {
+            Some(slots) => slots,
+            None => return vec![],
+        };
+
+        let mut candidates = self.pending_operation_ids.clone();
+        candidates.sort_by_key(|(_op_id, priority)| *priority);
+
+        let mut taken = vec![];
+        for (op_id, _priority) in candidates {
+            if taken.len() >= limit {
+                break;
+            }
+
+            let op = self.operations.get(&op_id).unwrap();
+            if let Some(slots) = op.inventory_slots_used() {
+                if slots_used + slots <= PLAYER_INVENTORY_SLOTS {
+                    slots_used += slots;
+                    taken.push(op_id);
+                }
+            }
+        }
+
+        self.pending_operation_ids
+            .retain(|(op_id, _priority)| !taken.contains(op_id));
+
+        taken
+            .iter()
+            .map(|op_id| {
+                let op = self.operations.get_mut(op_id).unwrap();
+                op.status = OperationStatus::InProgress;
+                op.clone()
+            })
+            .collect()
+    }
+
+    // Claims the highest priority pending operation that can use items the agent is already
+    // carrying, along with which carried slot stands in for each of its sources
+    pub fn take_carry_over_operation(
+        &mut self,
+        holds: &HoldState,
+        inventories: &InventoryState,
+        carried: &[Option<Item>],
+        free_slots: u32,
+    ) -> Option<(Operation, Vec<Option<u32>>)> {
+        let mut candidates = self.pending_operation_ids.clone();
+        candidates.sort_by_key(|(_op_id, priority)| *priority);
+
+        let (op_id, carried_sources) = candidates.iter().find_map(|(op_id, _priority)| {
+            self.operations
+                .get(op_id)
+                .unwrap()
+                .carried_sources(holds, inventories, carried, free_slots)
+                .map(|carried_sources| (*op_id, carried_sources))
+        })?;
+
+        self.pending_operation_ids
+            .retain(|(pending_id, _priority)| *pending_id != op_id);
+
+        let op = self.operations.get_mut(&op_id).unwrap();
+        op.status = OperationStatus::InProgress;
+
+        Some((op.clone(), carried_sources))
+    }
+
     pub fn set_operation_status(
         &mut self,
         operation_id: Uuid,
         status: OperationStatus,
     ) -> Result<&Operation, OperationError> {
+        let queue_changed = &self.queue_changed;
+
         self.operations
             .get_mut(&operation_id)
             .ok_or_else(|| OperationError::NotFound)
@@ -192,6 +282,8 @@ impl OperationState {
                 match status {
                     OperationStatus::Aborted | OperationStatus::Complete => {
                         op.finalized_at = Some(Utc::now());
+                        // A finished operation may free up a shulker station
+                        queue_changed.notify_waiters();
                     }
                     _ => {}
                 }
@@ -200,6 +292,35 @@ impl OperationState {
             })
     }
 
+    // Credits an in progress operation with holds it has fulfilled, ignoring ones it doesn't use
+    pub fn record_fulfilled_holds(
+        &mut self,
+        operation_id: Uuid,
+        hold_ids: &[Uuid],
+    ) -> Result<(), OperationError> {
+        let op = self
+            .operations
+            .get_mut(&operation_id)
+            .ok_or_else(|| OperationError::NotFound)?;
+
+        if op.status != OperationStatus::InProgress {
+            return Ok(());
+        }
+
+        let op_holds = op.holds();
+        for hold_id in hold_ids {
+            if op_holds.contains(hold_id) && !op.fulfilled_holds.contains(hold_id) {
+                op.fulfilled_holds.push(*hold_id);
+            }
+        }
+
+        Ok(())
+    }
+
+    pub fn queue_changed(&self) -> Arc<Notify> {
+        self.queue_changed.clone()
+    }
+
     pub fn iter(&self, status: OperationStatus) -> impl Iterator<Item = &Operation> {
         self.operations
             .iter()
@@ -303,6 +424,102 @@ impl Operation {
         }
     }
 
+    // Estimated cost for an agent at starting_loc to get started, lower when the agent already
+    // has the operation's starting chunk loaded
+    pub fn estimated_cost(
+        &self,
+        starting_loc: &Location,
+        capabilities: Option<&AgentCapabilities>,
+    ) -> i32 {
+        let loc = match self.starting_location() {
+            Some(loc) => loc,
+            None => return 0,
+        };
+
+        let chunk_loaded = capabilities
+            .and_then(|capabilities| capabilities.loaded_chunks)
+            .map(|chunks| chunks.contains(&loc))
+            .unwrap_or(false);
+
+        let cost = loc.distance_heuristic(starting_loc);
+        if chunk_loaded {
+            cost - LOADED_CHUNK_DISCOUNT
+        } else {
+            cost
+        }
+    }
+
+    // For each source hold, the carried slot holding enough of its item to be used in its place.
+    // None if no carried item can be used or the rest of the sources don't fit in free_slots.
+    fn carried_sources(
+        &self,
+        holds: &HoldState,
+        inventories: &InventoryState,
+        carried: &[Option<Item>],
+        free_slots: u32,
+    ) -> Option<Vec<Option<u32>>> {
+        // Drops throw out whole stacks, so a carried stack has to match the held count exactly
+        let (source_holds, counts, exact) = match &self.kind {
+            OperationKind::MoveItems {
+                source_holds,
+                counts,
+                ..
+            } => (source_holds, Some(counts), false),
+            OperationKind::DropItems { source_holds, .. } => (source_holds, None, true),
+            _ => return None,
+        };
+
+        let mut used = vec![false; carried.len()];
+        let mut carried_sources = vec![];
+
+        for (idx, hold_id) in source_holds.iter().enumerate() {
+            let hold = holds.get(*hold_id)?;
+            let item = inventories
+                .inventory_contents_at(&hold.location)?
+                .slots
+                .get(hold.slot as usize)?
+                .as_ref()?;
+            let needed = counts.map(|counts| counts[idx] as u32).unwrap_or(item.count);
+
+            let carried_slot = carried.iter().enumerate().position(|(slot, carried_item)| {
+                !used[slot]
+                    && carried_item
+                        .as_ref()
+                        .map(|carried_item| {
+                            carried_item.stackable_hash == item.stackable_hash
+                                && if exact {
+                                    carried_item.count == needed
+                                } else {
+                                    carried_item.count >= needed
+                                }
+                        })
+                        .unwrap_or(false)
+            });
+
+            if let Some(slot) = carried_slot {
+                used[slot] = true;
+            }
+            carried_sources.push(carried_slot.map(|slot| slot as u32));
+        }
+
+        let uncovered = carried_sources.iter().filter(|slot| slot.is_none()).count();
+        if uncovered == carried_sources.len() || uncovered > free_slots as usize {
+            return None;
+        }
+
+        Some(carried_sources)
+    }
+
+    // Player inventory slots used to carry this operation's items, for operations that can be
+    // batched into one trip
+    pub fn inventory_slots_used(&self) -> Option<usize> {
+        match &self.kind {
+            OperationKind::MoveItems { source_holds, .. } => Some(source_holds.len()),
+            OperationKind::DropItems { source_holds, .. } => Some(source_holds.len()),
+            _ => None,
+        }
+    }
+
     pub fn requires_clear_inventory(&self) -> bool {
         match &self.kind {
             OperationKind::ScanSigns { .. } => false,
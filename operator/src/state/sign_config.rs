@@ -1,5 +1,6 @@
 use std::{
-    collections::HashMap,
+    collections::{hash_map::DefaultHasher, HashMap},
+    hash::{Hash, Hasher},
     num::ParseIntError,
     sync::{Arc, Mutex},
 };
@@ -363,9 +364,16 @@ pub struct CompiledSignConfig {
     pub validation_errors: Vec<SignConfigValidationError>,
 }
 
+// A compiled config rendered to JSON, tagged with a hash of its contents for conditional requests
+pub struct SerializedSignConfig {
+    pub etag: String,
+    pub body: String,
+}
+
 pub struct SignConfigState {
     signs: Vec<Sign>,
     cached_config: Mutex<Option<Arc<CompiledSignConfig>>>,
+    cached_serialized_config: Mutex<Option<Arc<SerializedSignConfig>>>,
 }
 
 impl Default for SignConfigState {
@@ -373,6 +381,7 @@ impl Default for SignConfigState {
         SignConfigState {
             signs: Default::default(),
             cached_config: Default::default(),
+            cached_serialized_config: Default::default(),
         }
     }
 }
@@ -642,9 +651,8 @@ impl SignConfigState {
     }
 
     fn set_dirty(&self) {
-        let mut cached_config = self.cached_config.lock().unwrap();
-
-        cached_config.take();
+        self.cached_config.lock().unwrap().take();
+        self.cached_serialized_config.lock().unwrap().take();
     }
 
     pub fn get_config(&self) -> Arc<CompiledSignConfig> {
@@ -656,4 +664,25 @@ impl SignConfigState {
 
         cached_config.as_ref().unwrap().clone()
     }
+
+    pub fn get_serialized_config(&self) -> Arc<SerializedSignConfig> {
+        let mut cached_serialized_config = self.cached_serialized_config.lock().unwrap();
+
+        if cached_serialized_config.is_none() {
+            // Going through Value sorts map keys, so identical configs hash identically
+            let body = serde_json::to_value(self.get_config().as_ref())
+                .unwrap()
+                .to_string();
+
+            let mut hasher = DefaultHasher::new();
+            body.hash(&mut hasher);
+
+            cached_serialized_config.replace(Arc::new(SerializedSignConfig {
+                etag: format!("\"{:016x}\"", hasher.finish()),
+                body,
+            }));
+        }
+
+        cached_serialized_config.as_ref().unwrap().clone()
+    }
 }
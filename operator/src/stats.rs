@@ -19,6 +19,13 @@ pub struct Stats {
     pub agents_connected: usize,
 
     pub services_tick_times_micros: HashMap<&'static str, u64>,
+
+    // Measured by agents, None until reported
+    pub travel_leg_fixed_ms: Option<f64>,
+    pub travel_ms_per_block: Option<f64>,
+    pub portal_mean_ms: Option<f64>,
+    pub window_open_mean_ms: Option<f64>,
+    pub transfer_mean_ms: Option<f64>,
 }
 
 pub fn calculate_stats(state: &State) -> Stats {
@@ -53,6 +60,9 @@ pub fn calculate_stats(state: &State) -> Stats {
         },
     );
 
+    let travel = &state.metrics.travel;
+    let leg_fit = travel.leg_fit();
+
     Stats {
         inventories_in_mem,
         total_slots,
@@ -68,5 +78,11 @@ pub fn calculate_stats(state: &State) -> Stats {
         agents_connected,
 
         services_tick_times_micros,
+
+        travel_leg_fixed_ms: leg_fit.map(|(fixed, _per_block)| fixed),
+        travel_ms_per_block: leg_fit.map(|(_fixed, per_block)| per_block),
+        portal_mean_ms: travel.mean_portal_ms(),
+        window_open_mean_ms: travel.mean_window_open_ms(),
+        transfer_mean_ms: travel.mean_transfer_ms(),
     }
 }